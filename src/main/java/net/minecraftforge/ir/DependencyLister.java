@@ -22,16 +22,19 @@ import static net.minecraftforge.ir.InstallerRewriter.FORGE_MAVEN;
 import static net.minecraftforge.ir.InstallerRewriter.OLD_FORGE_MAVEN;
 import static net.minecraftforge.ir.util.Utils.getAsString;
 
+import java.io.IOException;
 import java.util.Set;
 
 import com.google.gson.JsonObject;
 
 import net.covers1624.quack.maven.MavenNotation;
 import net.minecraftforge.ir.util.JarContents;
+import net.minecraftforge.ir.util.Log;
 
 class DependencyLister extends MavenUrlProcessor {
     private final Set<String> deps;
-    DependencyLister(Set<String> deps) {
+    DependencyLister(Log log, Set<String> deps) {
+        super(log);
         this.deps = deps;
     }
 
@@ -76,6 +79,12 @@ class DependencyLister extends MavenUrlProcessor {
         return false;
     }
 
+    // Work on a copy so the library renames in MavenUrlProcessor don't leak into the shared json.
+    @Override
+    protected JsonObject loadJson(JarContents content, String name) throws IOException {
+        return super.loadJson(content, name).deepCopy();
+    }
+
     @Override
     protected void writeProfile(JarContents content, JsonObject install, MavenNotation notation) {}
     @Override
@@ -0,0 +1,137 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonSyntaxException;
+
+import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.Utils;
+
+/**
+ * Remembers the results of HEAD requests across runs, so libraries we already found
+ * don't need to be probed again. Missing files are remembered for less time, as they
+ * are the ones that may show up later.
+ * <p>
+ * Holds at most {@link #MAX_ENTRIES}, dropping the least recently used.
+ */
+class HeadCache {
+    private static final Log LOGGER = new Log();
+    private static final int MAX_ENTRIES = 20_000;
+    private static final long FOUND_TTL = Duration.ofDays(30).toMillis();
+    private static final long MISSING_TTL = Duration.ofDays(1).toMillis();
+
+    private final Path file;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean loaded = false;
+    private boolean dirty = false;
+
+    HeadCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The cached result, or null if we have not seen the url or the result expired.
+     */
+    synchronized Boolean get(String url) {
+        load();
+        Entry entry = entries.get(url);
+        if (entry == null)
+            return null;
+
+        // Offline there is nothing better to go on, so old results are still used.
+        long age = System.currentTimeMillis() - entry.checked;
+        if (!Utils.isOffline() && (age < 0 || age > (entry.exists ? FOUND_TTL : MISSING_TTL))) {
+            entries.remove(url);
+            dirty = true;
+            return null;
+        }
+        return entry.exists;
+    }
+
+    synchronized void put(String url, boolean exists) {
+        load();
+        Entry entry = new Entry();
+        entry.exists = exists;
+        entry.checked = System.currentTimeMillis();
+        entries.put(url, entry);
+        dirty = true;
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!Files.exists(file))
+            return;
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Data data = Utils.GSON.fromJson(reader, Data.class);
+            if (data != null && data.urls != null)
+                entries.putAll(data.urls);
+        } catch (IOException | JsonSyntaxException e) {
+            LOGGER.warn("Failed to read %s, starting empty: %s", file, e.getMessage());
+        }
+    }
+
+    synchronized void save() {
+        if (!dirty)
+            return;
+
+        Data data = new Data();
+        data.urls = new LinkedHashMap<>(entries);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Utils.makeParents(file);
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                Utils.GSON.toJson(data, writer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.error("Failed to save %s", file, e);
+        }
+    }
+
+    private static class Data {
+        Map<String, Entry> urls;
+    }
+
+    private static class Entry {
+        boolean exists;
+        long checked;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonParseException;
+
+import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.MultiHashOutputStream;
+import net.minecraftforge.ir.util.Utils;
+
+/**
+ * Makes in-place rewrites safe to interrupt. Before the original installer is moved to the backups,
+ * the new jar is synced to disk next to it, and an entry describing the swap is written here. The
+ * entry is removed once the new installer's sidecars are written, so anything left over is a swap
+ * that did not finish.
+ * <p>
+ * On startup those are finished: if the original installer was already moved to the backups, the rest
+ * of the original files follow it, the new jar is moved into place, and its sidecars are rebuilt from it.
+ * If the original was never moved, the new jar is dropped and the original stays. If the new jar was lost,
+ * the original files are moved back from the backups instead.
+ */
+class InPlaceJournal {
+    private static final Log LOGGER = new Log();
+    private static final String DIR_NAME = "inplace_journal";
+
+    private final Path dir;
+
+    InPlaceJournal(Path cache) {
+        this.dir = cache.resolve(DIR_NAME);
+    }
+
+    private Path entryFile(Path installer) {
+        return dir.resolve(installer.getFileName() + ".json");
+    }
+
+    /**
+     * Records that {@code temp} is about to replace {@code installer}, with the original moving to {@code backup}.
+     * Both the new jar and the entry are on disk once this returns.
+     *
+     * @throws FileAlreadyExistsException If something is already at the backup path, nothing is recorded.
+     */
+    void begin(Path installer, Path temp, Path backup) throws IOException {
+        // The original can't be moved there, and recovery could no longer tell which file is which.
+        if (Files.exists(backup))
+            throw new FileAlreadyExistsException(backup.toString(), null, "Backup already exists for " + installer);
+        sync(temp);
+
+        Entry entry = new Entry();
+        entry.installer = installer.toAbsolutePath().toString();
+        entry.temp = temp.toAbsolutePath().toString();
+        entry.backup = backup.toAbsolutePath().toString();
+
+        Path file = entryFile(installer);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Utils.makeParents(file);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(Utils.GSON.toJson(entry).getBytes(StandardCharsets.UTF_8));
+            while (data.hasRemaining())
+                channel.write(data);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Called once the new installer and its sidecars are on disk.
+     */
+    void finish(Path installer) {
+        Path file = entryFile(installer);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to remove journal entry %s, it will be checked again next run: %s", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Finishes or rolls back the swaps a previous run did not finish.
+     *
+     * @param sidecars Used to rewrite the sidecars of finished swaps, pending entries are removed once they are written.
+     * @return The number of entries found.
+     */
+    int recover(SidecarWriter sidecars) throws IOException {
+        if (!Files.isDirectory(dir))
+            return 0;
+
+        List<Path> all;
+        try (Stream<Path> stream = Files.list(dir)) {
+            all = stream.sorted().collect(Collectors.toList());
+        }
+        List<Path> files = all.stream().filter(p -> p.getFileName().toString().endsWith(".json")).collect(Collectors.toList());
+        // Entries that were still being written, the swap they describe never started.
+        for (Path file : all) {
+            if (file.getFileName().toString().endsWith(".tmp"))
+                Files.deleteIfExists(file);
+        }
+
+        for (Path file : files) {
+            Entry entry;
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                entry = Utils.GSON.fromJson(reader, Entry.class);
+            } catch (JsonParseException e) {
+                // Entries are only ever moved into place complete, so this was not written by us.
+                LOGGER.warn("Ignoring unreadable journal entry %s: %s", file, e.getMessage());
+                continue;
+            }
+
+            Path installer = Paths.get(entry.installer);
+            Path temp = Paths.get(entry.temp);
+            Path backup = Paths.get(entry.backup);
+
+            if (Files.exists(temp) && Files.exists(installer)) {
+                // The original is still in place, so the swap never started and the original is all we need.
+                LOGGER.info("Dropping interrupted rewrite of %s, the original was not moved yet", installer);
+                Files.delete(temp);
+                Files.delete(file);
+                continue;
+            } else if (Files.exists(temp)) {
+                LOGGER.info("Finishing interrupted rewrite of %s", installer);
+                moveAssociated(installer, backup);
+                Files.move(temp, installer, StandardCopyOption.ATOMIC_MOVE);
+            } else if (Files.notExists(installer)) {
+                LOGGER.warn("Rolling back interrupted rewrite of %s, the new installer is missing", installer);
+                moveAssociated(backup, installer);
+                Files.delete(file);
+                continue;
+            } else {
+                LOGGER.info("Rewriting sidecars for interrupted rewrite of %s", installer);
+            }
+
+            FileTime timestamp = Files.getLastModifiedTime(Files.exists(backup) ? backup : installer);
+            sidecars.add(installer, MultiHashOutputStream.hash(installer), timestamp, () -> finish(installer));
+        }
+        return files.size();
+    }
+
+    // Moves every file that starts with the name, that is not already at the destination
+    private static void moveAssociated(Path from, Path to) throws IOException {
+        if (Files.notExists(from.getParent()))
+            return;
+        String name = from.getFileName().toString();
+        List<Path> associated;
+        try (Stream<Path> stream = Files.list(from.getParent())) {
+            associated = stream.filter(p -> p.getFileName().toString().startsWith(name)).collect(Collectors.toList());
+        }
+        for (Path file : associated) {
+            Path target = to.resolveSibling(to.getFileName() + file.getFileName().toString().substring(name.length()));
+            if (Files.notExists(target))
+                Files.move(file, Utils.makeParents(target));
+        }
+    }
+
+    private static void sync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static class Entry {
+        String installer;
+        String temp;
+        String backup;
+    }
+}
@@ -21,33 +21,50 @@ package net.minecraftforge.ir;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import com.google.gson.stream.JsonReader;
 
 import net.minecraftforge.ir.json.InstallProfile;
 import net.minecraftforge.ir.util.JarContents;
-import net.minecraftforge.ir.util.Utils;
+import net.minecraftforge.ir.util.Log;
 
 public enum InstallerFormat {
     V2,
     V1,
     ;
-    private static final Logger LOGGER = LogManager.getLogger();
 
-    public static InstallerFormat detect(JarContents jar) {
-        try (InputStream is = jar.getInput(InstallProfile.INSTALL_PROFILE)) {
-            if (is == null)
-                return null;
+    /**
+     * Detects the format from the top level names in install_profile.json, the result is
+     * cached on the jar until the profile is written to.
+     */
+    public static InstallerFormat detect(Log log, JarContents jar) {
+        try {
+            return jar.getParsed(InstallProfile.INSTALL_PROFILE, InstallerFormat.class, InstallerFormat::detect);
+        } catch (IOException | IllegalStateException e) {
+            log.error("Failed to parse install_profile.json", e);
+            return null;
+        }
+    }
 
-            @SuppressWarnings("unchecked")
-            Map<String, ?> map = Utils.GSON.fromJson(new InputStreamReader(is), Map.class);
+    // V1 profiles embed the entire version json, so only look at names and skip over the values.
+    private static InstallerFormat detect(InputStream is) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        reader.beginObject();
 
-            return map.containsKey("install") && map.containsKey("versionInfo") ? V1 : V2;
-        } catch (IOException e) {
-            LOGGER.error("Failed to parse install_profile.json", e);
-            return null;
+        boolean install = false;
+        boolean versionInfo = false;
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "install":     install = true; break;
+                case "versionInfo": versionInfo = true; break;
+                case "spec":        return V2; // Only V2 profiles have a spec
+            }
+            if (install && versionInfo)
+                return V1;
+            reader.skipValue();
         }
+        return V2;
     }
 }
@@ -20,33 +20,46 @@ package net.minecraftforge.ir;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
-import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import joptsimple.util.PathConverter;
 import net.covers1624.quack.io.IOUtils;
 import net.covers1624.quack.maven.MavenNotation;
-import net.covers1624.quack.util.JavaPathUtils;
-import net.covers1624.quack.util.MultiHasher;
 import net.covers1624.quack.util.SneakyUtils;
 import net.minecraftforge.ir.test.InstallerTester;
 import net.minecraftforge.ir.util.JarContents;
+import net.minecraftforge.ir.util.JarSigner;
 import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.MultiHashOutputStream;
 import net.minecraftforge.ir.util.Utils;
+import org.apache.logging.log4j.Level;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
-import static net.minecraftforge.ir.util.Utils.runWaitFor;
 
 public class InstallerRewriter {
 
@@ -91,13 +104,6 @@ public class InstallerRewriter {
             InstallerFormat.V2, new InstallerV2Processor()
     );
 
-    private static final List<MultiHasher.HashFunc> HASH_FUNCS = Arrays.asList(
-            MultiHasher.HashFunc.MD5,
-            MultiHasher.HashFunc.SHA1,
-            MultiHasher.HashFunc.SHA256,
-            MultiHasher.HashFunc.SHA512
-    );
-
     public static void main(String[] args) throws Throwable {
         System.exit(mainI(args));
     }
@@ -155,6 +161,35 @@ public class InstallerRewriter {
 
         OptionSpec<Void> dryRunOpt = parser.acceptsAll(asList("dry"), "Runs everything without actually writing anything to disc.");
 
+        OptionSpec<Void> reproducibleOpt = parser.acceptsAll(asList("reproducible"), "Writes jars with fixed timestamps and no extra fields, so the same contents always produce the same bytes.");
+
+        OptionSpec<Void> offlineOpt = parser.acceptsAll(asList("offline"), "Never touches the network, everything must already be in the cache directory or maven local. Anything missing is an error.");
+
+        OptionSpec<Void> prefetchOpt = parser.acceptsAll(asList("prefetch"), "Downloads the installer data the selected options need into the cache directory and lists every installer's dependencies, without rewriting or writing any installers. Implies --dry.");
+
+        OptionSpec<Void> incrementalOpt = parser.acceptsAll(asList("incremental"), "Skips installers that are unchanged since they were last processed with the same options. State is kept in the cache directory.");
+
+        OptionSpec<Integer> threadsOpt = parser.acceptsAll(asList("threads"), "The number of versions to process in parallel.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1);
+
+        OptionSpec<Integer> pipelineOpt = parser.acceptsAll(asList("pipeline"), "Splits processing into read, process and write stages that run concurrently, with the given number of threads for each stage. Example: 2,4,2")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .withValuesSeparatedBy(',');
+
+        OptionSpec<Integer> pipelineQueueOpt = parser.acceptsAll(asList("pipeline-queue"), "The number of versions that can wait for each pipeline stage, limits how many jars are held in memory.")
+                .availableIf(pipelineOpt)
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(4);
+
+        OptionSpec<Integer> sidecarBatchOpt = parser.acceptsAll(asList("sidecar-batch"), "The number of saved versions whose hash files are written and synced to disk together.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(16);
+
         // Processors to run:
         OptionSpec<Void> mavenUrlChangeOpt  = parser.acceptsAll(asList("maven-url"), "Updates " + OLD_FORGE_MAVEN + " to " + FORGE_MAVEN);
         OptionSpec<Void> updateInstallerOpt = parser.acceptsAll(asList("update-installer"), "Updates the installer's executible code to the latest version for the major version used."); // Stupid name...
@@ -166,7 +201,9 @@ public class InstallerRewriter {
             return -1;
         }
 
-        boolean dryRun = optSet.has(dryRunOpt);
+        boolean prefetch = optSet.has(prefetchOpt);
+        boolean dryRun = optSet.has(dryRunOpt) || prefetch;
+        boolean reproducible = optSet.has(reproducibleOpt);
         boolean inPlace = optSet.has(inPlaceOpt);
 
         if (!optSet.has(repoPathOpt)) {
@@ -186,6 +223,18 @@ public class InstallerRewriter {
             return -1;
         }
 
+        if (optSet.has(pipelineOpt) && optSet.valuesOf(pipelineOpt).size() != 3) {
+            LOGGER.error("Expected --pipeline to have three thread counts: read,process,write");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (prefetch && optSet.has(offlineOpt)) {
+            LOGGER.error("Can not use --prefetch and --offline together.");
+            return -1;
+        }
+        Utils.setOffline(optSet.has(offlineOpt));
+
         Path repoPath = optSet.valueOf(repoPathOpt);
         if (Files.notExists(repoPath)) {
             LOGGER.error("Provided repo path does not exist");
@@ -202,13 +251,14 @@ public class InstallerRewriter {
             outputPath = optSet.valueOf(outputPathOpt);
         }
 
-        SignProps signProps = null;
+        JarSigner signer = null;
         if (optSet.has(signOpt)) {
-            signProps = new SignProps();
+            SignProps signProps = new SignProps();
             signProps.keyStorePath = optSet.valueOf(keyStoreOpt);
             signProps.keyAlias = optSet.valueOf(keyAliasOpt);
             signProps.keyStorePass = optSet.valueOf(keyStorePassOpt);
             signProps.keyPass = optSet.valueOf(keyPassOpt);
+            signer = signProps.load();
         }
 
         boolean mavenUrlChange = optSet.has(mavenUrlChangeOpt);
@@ -217,7 +267,7 @@ public class InstallerRewriter {
             throw new IllegalStateException("Converting from 1.x to 2.x not implemented currently");
         }
         InstallerUpdater instUpdater = null;
-        if (!dryRun && optSet.has(updateInstallerOpt)) {
+        if ((!dryRun || prefetch) && optSet.has(updateInstallerOpt)) {
             instUpdater = new InstallerUpdater();
             if (!instUpdater.loadInstallerData(CACHE_DIR)) {
                 return -1;
@@ -233,7 +283,7 @@ public class InstallerRewriter {
             return -1;
         }
 
-        LOGGER.info("Reading sub-folders of {}", forgeNotation);
+        LOGGER.info("Reading sub-folders of %s", forgeNotation);
         List<String> folderVersions = Files.list(moduleFolder)
                 .filter(Files::isDirectory)
                 .map(Path::getFileName)
@@ -257,13 +307,13 @@ public class InstallerRewriter {
                 if (!missingMetadata.isEmpty()) {
                     LOGGER.warn("Missing in maven-metadata, but exist as folders:");
                     for (String version : missingMetadata) {
-                        LOGGER.warn(" {}", version);
+                        LOGGER.warn(" %s", version);
                     }
                 }
                 if (!missingFolder.isEmpty()) {
                     LOGGER.warn("Missing in folder but exist in maven-metadata:");
                     for (String version : missingFolder) {
-                        LOGGER.warn(" {}", version);
+                        LOGGER.warn(" %s", version);
                     }
                 }
             }
@@ -274,135 +324,489 @@ public class InstallerRewriter {
         LOGGER.info("Sorting version lists..");
         folderVersions.sort(Comparator.comparing(ComparableVersion::new));
 
+        RewriteState state = null;
+        if (optSet.has(incrementalOpt) && !dryRun) {
+            String fingerprint = fingerprint(mavenUrlChange, convert1To2, instUpdater,
+                optSet.has(signOpt) ? optSet.valueOf(keyAliasOpt) : null, outputPath, reproducible);
+            state = RewriteState.load(CACHE_DIR, repoPath, fingerprint);
+        }
+
+        SidecarWriter sidecars = null;
+        InPlaceJournal journal = null;
+        if (!dryRun) {
+            sidecars = new SidecarWriter(LOGGER, optSet.valueOf(sidecarBatchOpt));
+            journal = new InPlaceJournal(CACHE_DIR);
+            int recovered = journal.recover(sidecars);
+            if (recovered > 0) {
+                sidecars.flush();
+                LOGGER.info("Recovered %d interrupted in-place rewrites", recovered);
+            }
+        }
+
+        Settings settings = new Settings(repoPath, backupPath, outputPath, signer, instUpdater,
+            mavenUrlChange, convert1To2, dryRun, prefetch, reproducible, state, sidecars, journal, folderVersions.size());
+
+        int threads = Math.max(1, optSet.valueOf(threadsOpt));
         LOGGER.info("Processing versions..");
-        Set<String> deps = new TreeSet<>();
-        for (int x = 0; x < folderVersions.size(); x++) {
-            processVersion(signProps, forgeNotation.withVersion(folderVersions.get(x)),
-                repoPath, backupPath, outputPath,
-                instUpdater, mavenUrlChange, convert1To2,
-                x, folderVersions.size(), dryRun, deps);
+        try {
+            if (optSet.has(pipelineOpt)) {
+                List<MavenNotation> versions = folderVersions.stream().map(forgeNotation::withVersion).collect(Collectors.toList());
+                List<Integer> stages = optSet.valuesOf(pipelineOpt);
+                runPipeline(settings, versions, stages.get(0), stages.get(1), stages.get(2), Math.max(1, optSet.valueOf(pipelineQueueOpt)));
+            } else if (threads == 1) {
+                for (int x = 0; x < folderVersions.size(); x++)
+                    processVersion(LOGGER, settings, forgeNotation.withVersion(folderVersions.get(x)), x + 1);
+            } else {
+                LOGGER.info("  Using %d threads", threads);
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    // Each version logs into its own buffer, which is dumped in submission order
+                    // so the output reads the same as a sequential run.
+                    List<Future<BufferedLog>> futures = new ArrayList<>(folderVersions.size());
+                    for (int x = 0; x < folderVersions.size(); x++) {
+                        MavenNotation notation = forgeNotation.withVersion(folderVersions.get(x));
+                        int idx = x + 1;
+                        futures.add(executor.submit(() -> {
+                            BufferedLog log = new BufferedLog();
+                            try {
+                                processVersion(log.log, settings, notation, idx);
+                            } catch (Throwable t) {
+                                log.error = t;
+                            }
+                            return log;
+                        }));
+                    }
+
+                    for (Future<BufferedLog> future : futures) {
+                        BufferedLog log;
+                        try {
+                            log = future.get();
+                        } catch (ExecutionException e) {
+                            throw e.getCause();
+                        }
+                        log.dump(LOGGER);
+                        if (log.error != null)
+                            throw log.error;
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        } finally {
+            if (sidecars != null)
+                sidecars.close();
+            if (state != null)
+                state.save();
+            InstallerUpdater.HEAD_CACHE.save();
         }
 
-        deps.forEach(System.out::println);
+        settings.deps.forEach(System.out::println);
+
+        if (prefetch)
+            LOGGER.info("Prefetched into %s, later runs can use --offline", CACHE_DIR);
 
         return 0;
     }
 
-    private static void processVersion(SignProps signProps, MavenNotation notation, Path repo,
-        @Nullable Path backupPath, @Nullable Path outputPath,
-        InstallerUpdater instUpdater, boolean mavenUrlFix, boolean convert1To2,
-        int idx, int total, boolean dryRun, Set<String> deps
-    ) throws IOException {
-        boolean inPlace = backupPath != null;
+    private static String fingerprint(boolean mavenUrlFix, boolean convert1To2, @Nullable InstallerUpdater instUpdater,
+        @Nullable String signAlias, @Nullable Path outputPath, boolean reproducible) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        buf.append("maven-url=").append(mavenUrlFix).append('\n');
+        buf.append("convert-legacy=").append(convert1To2).append('\n');
+        buf.append("update-installer=").append(instUpdater == null ? "false" : instUpdater.fingerprint()).append('\n');
+        buf.append("sign=").append(signAlias).append('\n');
+        buf.append("output=").append(outputPath == null ? null : outputPath.toAbsolutePath()).append('\n');
+        buf.append("reproducible=").append(reproducible).append('\n');
+        return Hashing.sha256().hashString(buf, StandardCharsets.UTF_8).toString();
+    }
 
-        MavenNotation installer = notation.withClassifier("installer");
-        Path repoInstallerPath = installer.toPath(repo);
+    private static void processVersion(Log log, Settings settings, MavenNotation notation, int idx) throws IOException {
+        Job job = new Job(log, settings.repo, notation, idx);
+        try {
+            if (loadVersion(settings, job)) {
+                rewriteVersion(settings, job);
+                saveVersion(settings, job);
+            }
+        } finally {
+            job.close();
+        }
+    }
 
-        if (Files.notExists(repoInstallerPath)) {
-            LOGGER.warn("[{}/{}] Missing installer for: {}", idx, total, notation);
-            return;
+    /**
+     * Runs each version through separate read, process and write thread pools, so the disk and cpu heavy
+     * parts of different versions overlap. Each stage has a bounded queue, when it is full the previous
+     * stage waits, which caps the number of jars open at once.
+     */
+    private static void runPipeline(Settings settings, List<MavenNotation> versions, int readers, int processors, int writers, int queueSize) throws Throwable {
+        LOGGER.info("  Using pipeline with %d read, %d process and %d write threads", readers, processors, writers);
+        ExecutorService read = stageExecutor("read", readers, queueSize);
+        ExecutorService process = stageExecutor("process", processors, queueSize);
+        ExecutorService write = stageExecutor("write", writers, queueSize);
+        try {
+            List<CompletableFuture<Job>> futures = new ArrayList<>(versions.size());
+            for (int x = 0; x < versions.size(); x++) {
+                Job job = new Job(new BufferedLog(), settings.repo, versions.get(x), x + 1);
+                futures.add(CompletableFuture
+                    .supplyAsync(() -> job.step(j -> loadVersion(settings, j)), read)
+                    .thenApplyAsync(j -> j.step(j2 -> {
+                        rewriteVersion(settings, j2);
+                        return true;
+                    }), process)
+                    .thenApplyAsync(j -> j.step(j2 -> {
+                        saveVersion(settings, j2);
+                        return false;
+                    }), write));
+            }
+
+            // Dumped in submission order so the output reads the same as a sequential run.
+            for (CompletableFuture<Job> future : futures) {
+                Job job;
+                try {
+                    job = future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                job.buffer.dump(LOGGER);
+                if (job.buffer.error != null)
+                    throw job.buffer.error;
+            }
+        } finally {
+            read.shutdownNow();
+            process.shutdownNow();
+            write.shutdownNow();
+        }
+    }
+
+    private static ExecutorService stageExecutor(String name, int threads, int queueSize) {
+        threads = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+            r -> new Thread(r, "IR-" + name + '-' + count.incrementAndGet()),
+            (r, executor) -> {
+                // Block whoever is handing over work until there is room, instead of rejecting it.
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("Pipeline stopped");
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            });
+    }
+
+    /**
+     * Opens the installer and moves the files we don't want anymore out of the repo.
+     *
+     * @return False if there is nothing more to do for this version.
+     */
+    private static boolean loadVersion(Settings settings, Job job) throws IOException {
+        Log log = job.log;
+        int idx = job.idx;
+        int total = settings.total;
+
+        if (Files.notExists(job.repoInstallerPath)) {
+            log.warn("[%d/%d] Missing installer for: %s", idx, total, job.notation);
+            return false;
         }
-        //LOGGER.info("");
 
-        JarContents contents = JarContents.loadJar(repoInstallerPath.toFile());
+        if (settings.state != null && settings.state.isUnchanged(job.repoInstallerPath, settings.deps)) {
+            log.info("[%d/%d] Unchanged since last run: %s", idx, total, job.notation);
+            return false;
+        }
+        //log.info("");
 
+        job.contents = JarContents.loadJar(job.repoInstallerPath.toFile(), log);
         //Attempt to detect the installer format.
-        InstallerFormat format = InstallerFormat.detect(contents);
-        if (format == null) {
-            LOGGER.error("Unable to detect installer format for {}", notation);
-            return;
+        job.format = InstallerFormat.detect(log, job.contents);
+        if (job.format == null) {
+            log.error("Unable to detect installer format for %s", job.notation);
+            return false;
         }
-        LOGGER.info("[{}/{}] Found {} installer jar for: {}", idx, total, format, notation);
+        log.info("[%d/%d] Found %s installer jar for: %s", idx, total, job.format, job.notation);
+
+        if (settings.backupPath != null && !settings.dryRun) {
+            // Left by a crash while saving, before the swap was journaled.
+            Path temp = tempFile(job.repoInstallerPath);
+            if (job.listing().remove(temp.getFileName().toString())) {
+                log.info("[%d/%d] Deleting unfinished save %s", idx, total, temp.getFileName());
+                Files.deleteIfExists(temp);
+            }
 
-        if (inPlace && !dryRun) {
             //Move windows installers if found
-            MavenNotation winNotation = installer.withClassifier("installer-win").withExtension("exe");
-            Path winFile = winNotation.toPath(repo);
-            if (Files.exists(winFile)) {
-                moveWithAssociated(winFile, winNotation.toPath(backupPath));
+            MavenNotation winNotation = job.installer.withClassifier("installer-win").withExtension("exe");
+            Path winFile = winNotation.toPath(settings.repo);
+            if (job.listing().contains(winFile.getFileName().toString())) {
+                moveWithAssociated(winFile, winNotation.toPath(settings.backupPath), job.listing());
             }
 
             //Move javadoc zips.. Its 10 GB of useless space.
-            MavenNotation docNotation = installer.withClassifier("javadoc").withExtension("zip");
-            Path docFile = docNotation.toPath(repo);
-            if (Files.exists(docFile)) {
-                moveWithAssociated(docFile, docNotation.toPath(backupPath));
+            MavenNotation docNotation = job.installer.withClassifier("javadoc").withExtension("zip");
+            Path docFile = docNotation.toPath(settings.repo);
+            if (job.listing().contains(docFile.getFileName().toString())) {
+                moveWithAssociated(docFile, docNotation.toPath(settings.backupPath), job.listing());
             }
         }
+        return true;
+    }
 
-        //LOGGER.info("[{}/{}] Processing {}..", idx, total, notation);
+    private static void rewriteVersion(Settings settings, Job job) throws IOException {
+        //job.log.info("[%d/%d] Processing %s..", job.idx, settings.total, job.notation);
+        JarContents contents = job.contents;
+        MavenNotation installer = job.installer;
+        InstallerFormat format = job.format;
 
         InstallerFormat originalFormat = format;
+        if (settings.prefetch) {
+            // Only the dependencies are wanted, the installer is left as it is.
+            new DependencyLister(job.log, job.deps).process(installer, contents, format);
+            settings.deps.addAll(job.deps);
+            return;
+        }
         //if (instUpdater != null)
         //    format = instUpdater.pre(installer, contents, format);
-        if (mavenUrlFix)
-            format = new MavenUrlProcessor().process(installer, contents, format);
-        if (convert1To2)
+        if (settings.mavenUrlFix)
+            format = new MavenUrlProcessor(job.log).process(installer, contents, format);
+        if (settings.convert1To2)
             format = PROCESSORS.get(format).process(installer, contents, format);
-        if (instUpdater != null)
-            format = instUpdater.post(installer, contents, format, originalFormat);
-        if (deps != null)
-            new DependencyLister(deps).process(installer, contents, format);
+        if (settings.instUpdater != null)
+            format = settings.instUpdater.post(job.log, installer, contents, format, originalFormat);
+        new DependencyLister(job.log, job.deps).process(installer, contents, format);
+        settings.deps.addAll(job.deps);
+        job.format = format;
+    }
 
-        if (contents.changed() && !dryRun) {
-            LOGGER.info("[{}/{}] Contents Changed, saving file", idx, total);
+    private static void saveVersion(Settings settings, Job job) throws IOException {
+        if (settings.prefetch)
+            return;
+        Log log = job.log;
+        JarContents contents = job.contents;
+        MavenNotation installer = job.installer;
+        Path repoInstallerPath = job.repoInstallerPath;
+        boolean inPlace = settings.backupPath != null;
+        String sha1 = null;
+        FileTime modified = null;
+
+        if (contents.changed() && !settings.dryRun) {
+            log.info("[%d/%d] Contents Changed, saving file", job.idx, settings.total);
             FileTime timestamp = Files.getLastModifiedTime(repoInstallerPath);
             Path output = null;
+            Map<String, String> hashes;
             if (inPlace) {
-                output = installer.toPath(repo);
-                Path backupFile = installer.toPath(backupPath);
-                moveWithAssociated(repoInstallerPath, backupFile);
+                // The unmodified entries are still read from the original jar, so write
+                // next to it first and only swap it into place once the save is finished.
+                // The swap is journaled, so a crash part way through gets finished next run.
+                output = installer.toPath(settings.repo);
+                Path temp = tempFile(output);
+                Path backupFile = installer.toPath(settings.backupPath);
+                if (Files.exists(backupFile))
+                    throw new FileAlreadyExistsException(backupFile.toString(), null, "Backup already exists for " + output);
+                hashes = save(contents, temp, settings.signer, settings.reproducible);
+                settings.journal.begin(output, temp, backupFile);
+                moveWithAssociated(repoInstallerPath, backupFile, job.listing());
+                Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE);
             } else {
-                output = installer.toPath(outputPath);
+                output = installer.toPath(settings.outputPath);
+                hashes = save(contents, output, settings.signer, settings.reproducible);
             }
-            contents.save(output.toFile());
-            Files.setLastModifiedTime(output, timestamp);
+            Path saved = output;
+            settings.sidecars.add(output, hashes, timestamp, inPlace ? () -> settings.journal.finish(saved) : null);
 
-            if (signProps != null) {
-                signJar(signProps, output);
-            }
-
-            MultiHasher hasher = new MultiHasher(HASH_FUNCS);
-            hasher.load(output);
-            MultiHasher.HashResult result = hasher.finish();
-            for (Map.Entry<MultiHasher.HashFunc, HashCode> entry : result.entrySet()) {
-                Path hashFile = output.resolveSibling(output.getFileName() + "." + entry.getKey().name.toLowerCase());
-                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(hashFile))) {
-                    out.print(entry.getValue().toString());
-                    out.flush();
-                }
-                Files.setLastModifiedTime(hashFile, timestamp);
+            if (inPlace) {
+                sha1 = hashes.get("sha1");
+                // The sidecar writer sets this later, so the file doesn't have it yet.
+                modified = timestamp;
             }
         }
-        //LOGGER.info("[{}/{}] Processing finished!", idx, total);
+
+        // In-place this is the new installer, otherwise it is the untouched source.
+        if (settings.state != null)
+            settings.state.record(repoInstallerPath, sha1, modified, job.deps);
+        //log.info("[%d/%d] Processing finished!", job.idx, settings.total);
     }
 
-    public static void moveWithAssociated(Path from, Path to) throws IOException {
+    /**
+     * Saves the jar, signing and hashing it as it is written.
+     *
+     * @return Sidecar extension -> hash
+     */
+    private static Map<String, String> save(JarContents contents, Path target, @Nullable JarSigner signer, boolean reproducible) throws IOException {
+        Utils.makeParents(target);
+        MultiHashOutputStream out = new MultiHashOutputStream(Files.newOutputStream(target));
+        contents.save(out, signer, reproducible);
+        return out.hashes();
+    }
+
+    // Where an in-place save is written before it replaces the installer
+    private static Path tempFile(Path installer) {
+        return installer.resolveSibling('.' + installer.getFileName().toString() + ".tmp");
+    }
+
+    /**
+     * @param listing Names of the files next to {@code from}, the moved files are removed from it.
+     */
+    private static void moveWithAssociated(Path from, Path to, NavigableSet<String> listing) throws IOException {
         Utils.makeParents(to);
         Files.move(from, to);
         String theFileName = from.getFileName().toString();
-        List<Path> associated = Files.list(from.getParent())
-                .filter(e -> e.getFileName().toString().startsWith(theFileName))
-                .collect(Collectors.toList());
-        for (Path assoc : associated) {
-            Files.move(assoc, to.resolveSibling(assoc.getFileName()));
+        // Sorted, so everything that starts with the name comes right after it.
+        NavigableSet<String> associated = listing.subSet(theFileName, true, theFileName + Character.MAX_VALUE, true);
+        for (String assoc : associated) {
+            if (!assoc.equals(theFileName))
+                Files.move(from.resolveSibling(assoc), to.resolveSibling(assoc));
+        }
+        associated.clear();
+    }
+
+    private static NavigableSet<String> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).collect(Collectors.toCollection(TreeSet::new));
+        }
+    }
+
+    private static class Settings {
+        private final Path repo;
+        @Nullable private final Path backupPath;
+        @Nullable private final Path outputPath;
+        @Nullable private final JarSigner signer;
+        @Nullable private final InstallerUpdater instUpdater;
+        private final boolean mavenUrlFix;
+        private final boolean convert1To2;
+        private final boolean dryRun;
+        private final boolean prefetch;
+        private final boolean reproducible;
+        @Nullable private final RewriteState state;
+        @Nullable private final SidecarWriter sidecars;
+        @Nullable private final InPlaceJournal journal;
+        private final int total;
+        private final Set<String> deps = new ConcurrentSkipListSet<>();
+
+        private Settings(Path repo, @Nullable Path backupPath, @Nullable Path outputPath, @Nullable JarSigner signer,
+            @Nullable InstallerUpdater instUpdater, boolean mavenUrlFix, boolean convert1To2, boolean dryRun,
+            boolean prefetch, boolean reproducible, @Nullable RewriteState state, @Nullable SidecarWriter sidecars, @Nullable InPlaceJournal journal, int total) {
+            this.repo = repo;
+            this.backupPath = backupPath;
+            this.outputPath = outputPath;
+            this.signer = signer;
+            this.instUpdater = instUpdater;
+            this.mavenUrlFix = mavenUrlFix;
+            this.convert1To2 = convert1To2;
+            this.dryRun = dryRun;
+            this.prefetch = prefetch;
+            this.reproducible = reproducible;
+            this.state = state;
+            this.sidecars = sidecars;
+            this.journal = journal;
+            this.total = total;
+        }
+    }
+
+    /**
+     * A single version as it moves through loading, processing and saving.
+     */
+    private static class Job implements Closeable {
+        private final Log log;
+        @Nullable private final BufferedLog buffer;
+        private final MavenNotation notation;
+        private final MavenNotation installer;
+        private final Path repoInstallerPath;
+        private final int idx;
+        private final Set<String> deps = new TreeSet<>();
+        private JarContents contents;
+        private InstallerFormat format;
+        private boolean finished = false;
+        @Nullable private NavigableSet<String> listing;
+
+        private Job(Log log, Path repo, MavenNotation notation, int idx) {
+            this(log, null, repo, notation, idx);
+        }
+
+        private Job(BufferedLog buffer, Path repo, MavenNotation notation, int idx) {
+            this(buffer.log, buffer, repo, notation, idx);
+        }
+
+        private Job(Log log, @Nullable BufferedLog buffer, Path repo, MavenNotation notation, int idx) {
+            this.log = log;
+            this.buffer = buffer;
+            this.notation = notation;
+            this.installer = notation.withClassifier("installer");
+            this.repoInstallerPath = this.installer.toPath(repo);
+            this.idx = idx;
+        }
+
+        /**
+         * The files in the version's folder, listed once and kept up to date as files are moved out,
+         * so looking for associated files doesn't list the folder again for every move.
+         */
+        private NavigableSet<String> listing() throws IOException {
+            if (listing == null)
+                listing = list(repoInstallerPath.getParent());
+            return listing;
         }
+
+        /**
+         * Runs a pipeline stage, unless an earlier stage failed or said there was nothing left to do.
+         * Errors are kept in the buffer and reported when the log is dumped.
+         */
+        private Job step(Step step) {
+            if (finished)
+                return this;
+            try {
+                finished = !step.run(this);
+            } catch (Throwable t) {
+                buffer.error = t;
+                finished = true;
+            }
+            if (finished) {
+                try {
+                    close();
+                } catch (IOException e) {
+                    if (buffer.error == null)
+                        buffer.error = e;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (contents != null) {
+                contents.close();
+                contents = null;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        boolean run(Job job) throws IOException;
     }
 
-    public static void signJar(SignProps props, Path jarToSign) throws IOException {
-        runWaitFor("Sign", builder -> {
-            builder.command(asList(
-                    JavaPathUtils.getJarSignerExecutable().toAbsolutePath().toString(),
-                    "-keystore",
-                    props.keyStorePath.toAbsolutePath().toString(),
-                    "-storepass",
-                    props.keyStorePass,
-                    "-keypass",
-                    props.keyPass,
-                    jarToSign.toAbsolutePath().toString(),
-                    props.keyAlias
-            ));
+    private static class BufferedLog {
+        private record Line(Level level, String message, Object[] args) {}
+
+        private final List<Line> lines = new ArrayList<>();
+        private final Log log = new Log(new Log.Handler() {
+            @Override
+            public void log(Level level, String message) {
+                lines.add(new Line(level, message, null));
+            }
+
+            @Override
+            public void log(Level level, String message, Object[] args) {
+                lines.add(new Line(level, message, args));
+            }
         });
+        private Throwable error;
+
+        private void dump(Log logger) {
+            for (Line line : lines) {
+                if (line.args() == null)
+                    logger.log(line.level(), line.message());
+                else
+                    logger.log(line.level(), line.message(), line.args());
+            }
+        }
     }
 
     public static class SignProps {
@@ -411,5 +815,9 @@ public class InstallerRewriter {
         public String keyAlias = null;
         public String keyStorePass = null;
         public String keyPass = null;
+
+        public JarSigner load() throws IOException {
+            return JarSigner.load(keyStorePath, keyStorePass, keyAlias, keyPass);
+        }
     }
 }
@@ -23,22 +23,28 @@ import static net.minecraftforge.ir.util.JarContents.MANIFEST;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.stream.Collectors;
@@ -49,21 +55,26 @@ import java.util.zip.ZipFile;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
 import net.covers1624.quack.maven.MavenNotation;
 import net.minecraftforge.ir.util.JarContents;
 import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.PathTrie;
 import net.minecraftforge.ir.util.Utils;
-import net.minecraftforge.util.download.DownloadUtils;
+import net.minecraftforge.util.hash.HashFunction;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 
 class InstallerUpdater {
     private static final Log LOGGER = new Log();
     private static final String INSTALL_PROFILE = "install_profile.json";
-    @SuppressWarnings("unchecked")
-    private Set<String>[] blacklist = new Set[]{ new TreeSet<String>(), new TreeSet<String>() };
+    private static final String BLACKLIST_CACHE = "installer_blacklist.json";
+    private static final int SEED_THREADS = 8;
+    private static final int SEED_ATTEMPTS = 3;
+    private PathTrie[] blacklist = new PathTrie[2];
     private JarContents[] latestJars = new JarContents[2];
+    private String[] latestVersions = new String[2];
 
     boolean loadInstallerData(Path cache) {
         LOGGER.info("Download all installer seeds");
@@ -71,9 +82,19 @@ class InstallerUpdater {
         if (versions == null)
             return false;
         LOGGER.info("  Found " + versions.size() + " installers");
-        for (String version : versions) {
-            if (!processSeed(cache, version))
+        if (!loadBlacklist(cache, versions)) {
+            @SuppressWarnings("unchecked")
+            Set<String>[] entries = new Set[]{ new TreeSet<String>(), new TreeSet<String>() };
+            List<List<String>> seeds = fetchSeeds(cache, versions);
+            if (seeds == null)
                 return false;
+            for (int x = 0; x < versions.size(); x++) {
+                if (seeds.get(x) != null)
+                    entries[versions.get(x).startsWith("1.") ? 0 : 1].addAll(seeds.get(x));
+            }
+            for (int x = 0; x < blacklist.length; x++)
+                blacklist[x] = PathTrie.of(entries[x]);
+            saveBlacklist(cache, versions, entries);
         }
 
         for (int x = 0; x < blacklist.length; x++) {
@@ -91,9 +112,17 @@ class InstallerUpdater {
                 latest[1] = ver;
         }
 
+        latestVersions = latest;
         for (int x = 0; x < latest.length; x++) {
             LOGGER.info("Latest " + (x + 1) + ".x: " + latest[x]);
-            Path path = cache.resolve(getInstallerBase(latest[x]));
+            String base = getInstallerBase(latest[x]);
+            Path path = cache.resolve(base);
+            // Seeds are not downloaded when the blacklist was cached
+            try {
+                fetchSeed(cache, base);
+            } catch (IOException e) {
+                LOGGER.error("Failed to download " + InstallerRewriter.FORGE_MAVEN + base, e);
+            }
             if (!Files.exists(path)) {
                 LOGGER.error("Missing latest installer version: " + latest[x]);
                 return false;
@@ -110,12 +139,26 @@ class InstallerUpdater {
         return true;
     }
 
+    /**
+     * Describes everything that affects how installers get updated, so we can tell
+     * when previously updated installers need to be processed again.
+     */
+    String fingerprint() {
+        StringBuilder buf = new StringBuilder();
+        for (int x = 0; x < latestVersions.length; x++) {
+            buf.append(latestVersions[x]).append('[');
+            blacklist[x].forEach(l -> buf.append(l).append(','));
+            buf.append(']');
+        }
+        return buf.toString();
+    }
+
     private List<String> getVersions(Path cache) {
         String root = "net/minecraftforge/installer/";
         String metadataPath = root + "maven-metadata.xml";
         Path metadataFile = cache.resolve(metadataPath);
         try {
-            DownloadUtils.downloadFile(metadataFile.toFile(), InstallerRewriter.FORGE_MAVEN + metadataPath);
+            Utils.downloadFile(metadataFile.toFile(), InstallerRewriter.FORGE_MAVEN + metadataPath);
         } catch (IOException e) {
             LOGGER.error("Failed to download " + InstallerRewriter.FORGE_MAVEN + metadataPath, e);
             return null;
@@ -146,33 +189,147 @@ class InstallerUpdater {
         return path;
     }
 
-    private boolean processSeed(Path cache, String version) {
-        // 1.5-snapshot is a snapshot and honestly dont think it was used either, so maybe TODO?
-        if (version.endsWith("-SNAPSHOT"))
+    /**
+     * The blacklist only changes when a new installer is released, so it is cached along with
+     * the versions it was built from, which saves downloading and opening every seed each run.
+     */
+    private boolean loadBlacklist(Path cache, List<String> versions) {
+        Path file = cache.resolve(BLACKLIST_CACHE);
+        if (!Files.exists(file))
+            return false;
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            BlacklistCache data = Utils.GSON.fromJson(reader, BlacklistCache.class);
+            if (data == null || !versions.equals(data.versions) || data.blacklist == null || data.blacklist.size() != blacklist.length)
+                return false;
+            for (int x = 0; x < blacklist.length; x++)
+                blacklist[x] = PathTrie.of(data.blacklist.get(x));
+            LOGGER.info("  Using cached blacklist");
             return true;
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Failed to read " + file + ", rebuilding blacklist: " + e.getMessage());
+            return false;
+        }
+    }
 
-        String path = getInstallerBase(version);
+    private static void saveBlacklist(Path cache, List<String> versions, Set<String>[] entries) {
+        BlacklistCache data = new BlacklistCache();
+        data.versions = versions;
+        data.blacklist = new ArrayList<>();
+        for (Set<String> set : entries)
+            data.blacklist.add(new ArrayList<>(set));
 
-        Path target = cache.resolve(path);
-        try {
-            DownloadUtils.downloadFile(cache.resolve(path).toFile(), InstallerRewriter.FORGE_MAVEN + path);
+        Path file = cache.resolve(BLACKLIST_CACHE);
+        try (Writer writer = Files.newBufferedWriter(Utils.makeParents(file), StandardCharsets.UTF_8)) {
+            Utils.GSON.toJson(data, writer);
         } catch (IOException e) {
-            LOGGER.error("Failed to download " + InstallerRewriter.FORGE_MAVEN + path, e);
-            return false;
+            LOGGER.error("Failed to save " + file, e);
         }
+    }
 
-        Set<String> bl = blacklist[version.startsWith("1.") ? 0 : 1];
+    private static class BlacklistCache {
+        List<String> versions;
+        List<List<String>> blacklist;
+    }
+
+    /**
+     * Downloads all the seeds at once, any that are already downloaded and match the hash on
+     * the maven are left alone. So if some fail, running again only fetches the ones that failed.
+     *
+     * @return The entry names of each version's seed, in the same order as the versions.
+     */
+    private List<List<String>> fetchSeeds(Path cache, List<String> versions) {
+        ExecutorService executor = Executors.newFixedThreadPool(SEED_THREADS);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (String version : versions)
+                futures.add(executor.submit(() -> processSeed(cache, version)));
+
+            List<List<String>> ret = new ArrayList<>();
+            boolean failed = false;
+            for (int x = 0; x < versions.size(); x++) {
+                try {
+                    ret.add(futures.get(x).get());
+                } catch (ExecutionException e) {
+                    LOGGER.error("Failed to process installer seed " + versions.get(x), e.getCause());
+                    failed = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return failed ? null : ret;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> processSeed(Path cache, String version) throws IOException {
+        // 1.5-snapshot is a snapshot and honestly dont think it was used either, so maybe TODO?
+        if (version.endsWith("-SNAPSHOT"))
+            return null;
+
+        Path target = fetchSeed(cache, getInstallerBase(version));
+        List<String> ret = new ArrayList<>();
         try (ZipFile zf = new ZipFile(target.toFile())) {
             Enumeration<? extends ZipEntry> enu = zf.entries();
-            while (enu.hasMoreElements()) {
-                ZipEntry ent = enu.nextElement();
-                bl.add(ent.getName());
+            while (enu.hasMoreElements())
+                ret.add(enu.nextElement().getName());
+        } catch (IOException e) {
+            throw new IOException("Failed to parse " + target.toFile().getAbsolutePath(), e);
+        }
+        return ret;
+    }
+
+    /**
+     * Makes sure the seed is downloaded and matches the maven's .sha1 file, if it has one.
+     * Downloads go to a temp file first, so an interrupted run never leaves a broken seed behind.
+     */
+    private static Path fetchSeed(Path cache, String path) throws IOException {
+        Path target = cache.resolve(path);
+        String url = InstallerRewriter.FORGE_MAVEN + path;
+        String expected = getSeedHash(target, url);
+        if (Files.exists(target) && (expected == null || expected.equals(HashFunction.SHA1.hash(target.toFile()))))
+            return target;
+
+        Utils.checkOnline(url);
+        Path temp = target.resolveSibling(target.getFileName() + ".part");
+        IOException error = null;
+        for (int attempt = 1; attempt <= SEED_ATTEMPTS; attempt++) {
+            try {
+                Files.deleteIfExists(temp);
+                Utils.downloadFile(temp.toFile(), url);
+                String actual = HashFunction.SHA1.hash(temp.toFile());
+                if (expected != null && !expected.equals(actual))
+                    throw new IOException("Invalid hash for " + url + " Expected: " + expected + " Actual: " + actual);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return target;
+            } catch (IOException e) {
+                LOGGER.warn("Failed to download " + url + " (attempt " + attempt + "/" + SEED_ATTEMPTS + "): " + e.getMessage());
+                error = e;
             }
+        }
+        Files.deleteIfExists(temp);
+        throw error;
+    }
+
+    // Released installers never change, so the hash is kept next to the seed once we have it.
+    private static String getSeedHash(Path target, String url) {
+        Path hashFile = target.resolveSibling(target.getFileName() + ".sha1");
+        try {
+            if (Files.exists(hashFile))
+                return new String(Files.readAllBytes(hashFile), StandardCharsets.UTF_8).trim();
+
+            String hash = Utils.downloadString(url + ".sha1");
+            if (hash == null)
+                return null;
+            hash = hash.trim();
+            Files.write(Utils.makeParents(hashFile), hash.getBytes(StandardCharsets.UTF_8));
+            return hash;
         } catch (IOException e) {
-            LOGGER.error("Failed to parse " + target.toFile().getAbsolutePath(), e);
-            return false;
+            // No hash on the maven, nothing to verify against
+            return null;
         }
-        return true;
     }
 
     private void add(Set<String> whitelist, JsonObject json, String key) {
@@ -181,7 +338,7 @@ class InstallerUpdater {
             whitelist.add(JarContents.sanitize(data));
     }
 
-    InstallerFormat post(MavenNotation installer, JarContents jar, InstallerFormat format, InstallerFormat originalFormat) throws IOException {
+    InstallerFormat post(Log log, MavenNotation installer, JarContents jar, InstallerFormat format, InstallerFormat originalFormat) throws IOException {
         if (!jar.contains(INSTALL_PROFILE))
             return format;
 
@@ -191,10 +348,10 @@ class InstallerUpdater {
         whitelist.add(MANIFEST);
 
         JsonObject json = null;
-        try (InputStream is = jar.getInput(INSTALL_PROFILE)) {
-            json = Utils.GSON.fromJson(new InputStreamReader(is), JsonObject.class);
+        try {
+            json = jar.getJson(INSTALL_PROFILE);
         } catch (IOException e) {
-            LOGGER.error("Failed to parse " + INSTALL_PROFILE, e);
+            log.error("Failed to parse " + INSTALL_PROFILE, e);
             return format;
         }
 
@@ -210,7 +367,7 @@ class InstallerUpdater {
         }
 
         if (originalFormat != format || !newJar.sameData(jar, whitelist)) {
-            Set<String> blacklist = this.blacklist[originalFormat == InstallerFormat.V1 ? 0 : 1];
+            PathTrie blacklist = this.blacklist[originalFormat == InstallerFormat.V1 ? 0 : 1];
             for (String file : jar.getFiles()) {
                 if (blacklist.contains(file) && !whitelist.contains(file) && !JarContents.isSignature(file))
                     jar.delete(file);
@@ -221,8 +378,8 @@ class InstallerUpdater {
 
         if (jar.contains(MANIFEST) && newJar.contains(MANIFEST)) { // Should always be true, but if not, then the above merge would of injected ours.
             boolean changed = false;
-            Manifest oman = loadManifest(jar);
-            Manifest nman = loadManifest(newJar);
+            Manifest oman = loadManifest(log, jar);
+            Manifest nman = loadManifest(log, newJar);
 
             changed = merge(oman.getMainAttributes(), nman.getMainAttributes());
             for (Entry<String, Attributes> ent : nman.getEntries().entrySet()) {
@@ -268,11 +425,11 @@ class InstallerUpdater {
         return changed;
     }
 
-    private static Manifest loadManifest(JarContents jar) {
+    private static Manifest loadManifest(Log log, JarContents jar) {
         try (InputStream is = jar.getInput(MANIFEST)) {
             return new Manifest(is);
         } catch (IOException e) {
-            LOGGER.error("Failed to read " + MANIFEST, e);
+            log.error("Failed to read " + MANIFEST, e);
             return null;
         }
     }
@@ -282,7 +439,8 @@ class InstallerUpdater {
             .readTimeout(Duration.ofMinutes(5))
             .connectTimeout(Duration.ofMinutes(5))
             .build();
-    private static final Map<String, Boolean> recentHeadRequests = new HashMap<>();
+    static final HeadCache HEAD_CACHE = new HeadCache(InstallerRewriter.CACHE_DIR.resolve("head_requests.json"));
+
     public static boolean headRequest(URL url) throws IOException {
         // OkHttp does not handle the file protocol.
         if (url.getProtocol().equals("file")) {
@@ -293,10 +451,11 @@ class InstallerUpdater {
             }
         }
 
-        Boolean recent = recentHeadRequests.get(url.toString());
+        Boolean recent = HEAD_CACHE.get(url.toString());
         if (recent != null) {
             return recent;
         }
+        Utils.checkOnline(url.toString());
         Request request = new Request.Builder()
                 .url(url)
                 .head()
@@ -304,7 +463,9 @@ class InstallerUpdater {
                 .build();
         try (var response = HTTP_CLIENT.newCall(request).execute()) {
             recent = response.isSuccessful();
-            recentHeadRequests.put(url.toString(), recent);
+            // Only remember definite answers, anything else may just be the server having a bad day.
+            if (recent || response.code() == 404 || response.code() == 410)
+                HEAD_CACHE.put(url.toString(), recent);
             return recent;
         }
     }
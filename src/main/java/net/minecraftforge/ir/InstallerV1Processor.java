@@ -36,7 +36,6 @@ import net.minecraftforge.ir.util.JarContents;
 import net.minecraftforge.ir.util.Log;
 import net.minecraftforge.ir.util.MinecraftCache;
 import net.minecraftforge.ir.util.Utils;
-import net.minecraftforge.util.download.DownloadUtils;
 
 import org.apache.maven.artifact.versioning.ComparableVersion;
 
@@ -129,7 +128,7 @@ public class InstallerV1Processor implements InstallerProcessor {
             String filePathStr = Objects.requireNonNull(v1Install.filePath);
             Path oldUniversalJar = oldJarRoot.resolve(filePathStr);
             if (!Files.exists(oldUniversalJar)) {
-                LOGGER.error("'filePath' does not exist in old jar. {}", filePathStr);
+                LOGGER.error("'filePath' does not exist in old jar. %s", filePathStr);
                 return false;
             }
 
@@ -261,12 +260,12 @@ public class InstallerV1Processor implements InstallerProcessor {
         v1VersionInfo.libraries.forEach(v -> {
             MavenNotation replacement = REPLACEMENTS.get(v.name);
             if (replacement != null) {
-                LOGGER.info("Replacing {} with {}", v.name, replacement);
+                LOGGER.info("Replacing %s with %s", v.name, replacement);
                 v.name = replacement;
             }
             replacement = PER_VERSION_TABLE.get(newProfile.minecraft, v.name);
             if (replacement != null) {
-                LOGGER.info("Replacing {} with {}", v.name, replacement);
+                LOGGER.info("Replacing %s with %s", v.name, replacement);
                 v.name = replacement;
             }
         });
@@ -284,7 +283,7 @@ public class InstallerV1Processor implements InstallerProcessor {
                         && e.clientreq == null
                         && e.serverreq == null
                         && !e.name.toString().startsWith("net.sf.jopt-simple:jopt-simple:")) {
-                    LOGGER.debug("Removing {} from forge version json.", e.name);
+                    LOGGER.debug("Removing %s from forge version json.", e.name);
                     return true;
                 }
 
@@ -298,7 +297,7 @@ public class InstallerV1Processor implements InstallerProcessor {
                         ComparableVersion forgeV = new ComparableVersion(e.name.version);
                         boolean remove = mcV.compareTo(forgeV) > 0;
                         if (remove) {
-                            LOGGER.debug("Removing {} from forge version json. Minecraft manifest has newer version: {}", e.name, mcLib);
+                            LOGGER.debug("Removing %s from forge version json. Minecraft manifest has newer version: %s", e.name, mcLib);
                         }
                         return remove;
                     }
@@ -322,7 +321,7 @@ public class InstallerV1Processor implements InstallerProcessor {
 
         List<Version.Library> libraries = version.getLibraries();
         for (InstallProfileV1.Library library : v1VersionInfo.libraries) {
-            LOGGER.debug("Processing library: {}", library.name);
+            LOGGER.debug("Processing library: %s", library.name);
             Version.Library lib = rewriteLibrary(library, newProfile);
             libraries.add(lib);
 
@@ -339,12 +338,12 @@ public class InstallerV1Processor implements InstallerProcessor {
                 lastLib = i;
                 LibraryClasspathEntry l = (LibraryClasspathEntry) entry;
                 if (lib.name.equals(l.notation)) {
-                    LOGGER.debug("Classpath library {} validated.", l.notation);
+                    LOGGER.debug("Classpath library %s validated.", l.notation);
                     found = true;
                     break;
                 } else if (lib.name.group.equals(l.notation.group) && lib.name.module.equals(l.notation.module) && Objects.equals(lib.name.classifier, l.notation.classifier)) {
                     //Update the classpath if we have a newer version than a supplied library.
-                    LOGGER.warn("Correcting incorrect library, Classpath assumes '{}', got '{}'", l.notation, lib.name);
+                    LOGGER.warn("Correcting incorrect library, Classpath assumes '%s', got '%s'", l.notation, lib.name);
                     l.modified = true;
                     found = true;
                     l.notation = lib.name;
@@ -352,7 +351,7 @@ public class InstallerV1Processor implements InstallerProcessor {
                 }
             }
             if (found) continue;
-            LOGGER.warn("Classpath library {}, not found! Adding entry.", lib.name);
+            LOGGER.warn("Classpath library %s, not found! Adding entry.", lib.name);
             LibraryClasspathEntry entry = new LibraryClasspathEntry(lib.name);
             entry.modified = true;
 
@@ -389,7 +388,7 @@ public class InstallerV1Processor implements InstallerProcessor {
                 }
             }
             if (found) continue;
-            LOGGER.error("Classpath library {}, not found!", l.notation);
+            LOGGER.error("Classpath library %s, not found!", l.notation);
         }
 
         return version;
@@ -409,10 +408,10 @@ public class InstallerV1Processor implements InstallerProcessor {
         libraryDownload.path = name.toPath();
 
         String repo = determineRepo(oldLibrary);
-        LOGGER.debug("Using {} repository for library {}", repo, name);
+        LOGGER.debug("Using %s repository for library %s", repo, name);
         Path libraryPath = name.toPath(this.cache);
         URL url = name.toURL(repo);
-        DownloadUtils.downloadFile(libraryPath.toFile(), url.toString());
+        Utils.downloadFile(libraryPath.toFile(), url.toString());
         libraryDownload.url = url.toString();
 
         HashCode hash = HashUtils.hash(SHA1, libraryPath);
@@ -428,7 +427,7 @@ public class InstallerV1Processor implements InstallerProcessor {
                 String expected = "[" + String.join(", ", oldLibrary.checksums) + "]";
                 //Suppress warnings about scala hashes changing, these were intentionally shrunk
                 if (!name.group.startsWith("org.scala-lang")) {
-                    LOGGER.warn("Old installer profile checksums could not be validated for {}. Got {}, Expected one of {}.", name, hash, expected);
+                    LOGGER.warn("Old installer profile checksums could not be validated for %s. Got %s, Expected one of %s.", name, hash, expected);
                 }
             }
         }
@@ -465,7 +464,7 @@ public class InstallerV1Processor implements InstallerProcessor {
             break;
         }
 
-        LOGGER.debug("Adding extra library: {}", LJF);
+        LOGGER.debug("Adding extra library: %s", LJF);
         // Add LJF to installer profile, this will be processed later by the rest of V1Processor.
         InstallProfileV1.Library lib = new InstallProfileV1.Library();
         lib.name = LJF;
@@ -496,7 +495,7 @@ public class InstallerV1Processor implements InstallerProcessor {
 
             // If we don't have it, Download it and use the cache dir.
             String maven = findFirstMaven(library, MAVENS);
-            DownloadUtils.downloadFile(library.name.toPath(this.cache).toFile(), library.name.toURL(maven).toString());
+            Utils.downloadFile(library.name.toPath(this.cache).toFile(), library.name.toURL(maven).toString());
             return cacheDir;
         }
 
@@ -24,7 +24,6 @@ import net.covers1624.quack.maven.MavenNotation;
 import net.minecraftforge.ir.util.JarContents;
 import net.minecraftforge.ir.util.Log;
 import net.minecraftforge.ir.util.Utils;
-import net.minecraftforge.util.download.DownloadUtils;
 import net.minecraftforge.util.hash.HashFunction;
 
 import java.io.IOException;
@@ -65,13 +64,13 @@ public class InstallerV2Processor implements InstallerProcessor {
 
             Path profileJson = newJarRoot.resolve("install_profile.json");
             if (!Files.exists(profileJson)) {
-                LOGGER.error("Missing install_profile.json {}", ctx.notation);
+                LOGGER.error("Missing install_profile.json %s", ctx.notation);
                 return false;
             }
 
             byte[] bytes = rewriteInstallProfile(ctx.notation, Files.newInputStream(profileJson), newJarRoot);
             if (bytes != null) {
-                LOGGER.debug("Updating install_profile.json for {}", ctx.notation);
+                LOGGER.debug("Updating install_profile.json for %s", ctx.notation);
                 Files.delete(profileJson);
                 Files.write(profileJson, bytes);
                 return true;
@@ -98,7 +97,7 @@ public class InstallerV2Processor implements InstallerProcessor {
         }
         byte[] bytes = rewriteVersionJson(notation, Files.newInputStream(versionJson), jarRoot);
         if (bytes != null) {
-            LOGGER.debug("Updating json {}.", json);
+            LOGGER.debug("Updating json %s.", json);
             Files.delete(versionJson);
             Files.write(versionJson, bytes);
         }
@@ -106,12 +105,12 @@ public class InstallerV2Processor implements InstallerProcessor {
         // Ensure Mirror List exists and is updated.
         String mirrorList = getAsString(install, "mirrorList", null);
         if (mirrorList == null) {
-            LOGGER.debug("Adding Mirror List to {}", notation);
+            LOGGER.debug("Adding Mirror List to %s", notation);
             install.addProperty("mirrorList", MIRROR_LIST);
             changes = true;
         } else {
             if (!mirrorList.equals(MIRROR_LIST)) {
-                LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, MIRROR_LIST);
+                LOGGER.debug("Updating Mirror List from %s to %s", mirrorList, MIRROR_LIST);
                 install.addProperty("mirrorList", MIRROR_LIST);
                 changes = true;
             }
@@ -166,7 +165,7 @@ public class InstallerV2Processor implements InstallerProcessor {
             url = FORGE_MAVEN + url.substring(OLD_FORGE_MAVEN.length());
         }
         if (!origUrl.equals(url)) {
-            LOGGER.debug("Rewrote URL from {} to {} in {}", origUrl, url, notation);
+            LOGGER.debug("Rewrote URL from %s to %s in %s", origUrl, url, notation);
             artifact.addProperty("url", url);
             changes = true;
         }
@@ -181,7 +180,7 @@ public class InstallerV2Processor implements InstallerProcessor {
         } else {
             // Download the artifact if necessary
             artifactPath = InstallerRewriter.CACHE_DIR.resolve(path);
-            DownloadUtils.downloadFile(artifactPath.toFile(), url);
+            Utils.downloadFile(artifactPath.toFile(), url);
         }
 
         // Compute sha1 and length of the artifact.
@@ -190,14 +189,14 @@ public class InstallerV2Processor implements InstallerProcessor {
 
         // Validate the artifact hash matches.
         if (!computedHash.equals(expectedSha1)) {
-            LOGGER.warn("Corrected incorrect hash for {}, From: {}, To: {}", name, expectedSha1, computedHash);
+            LOGGER.warn("Corrected incorrect hash for %s, From: %s, To: %s", name, expectedSha1, computedHash);
             artifact.addProperty("sha1", computedHash.toString());
             changes = true;
         }
 
         // Validate the artifact length matches.
         if (expectedLen != computedLength) {
-            LOGGER.warn("Corrected incorrect file length for {}, From: {}, To: {}", name, expectedLen, computedLength);
+            LOGGER.warn("Corrected incorrect file length for %s, From: %s, To: %s", name, expectedLen, computedLength);
             artifact.addProperty("size", computedLength);
             changes = true;
         }
@@ -25,35 +25,35 @@ import static net.minecraftforge.ir.util.Utils.getAsInt;
 import static net.minecraftforge.ir.util.Utils.getAsString;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import net.covers1624.quack.maven.MavenNotation;
 import net.minecraftforge.ir.util.JarContents;
-import net.minecraftforge.ir.util.Utils;
+import net.minecraftforge.ir.util.Log;
 
 public class MavenUrlProcessor implements InstallerProcessor {
-    private static final Logger LOGGER = LogManager.getLogger();
     private static final String MIRROR_BRAND = "https://files.minecraftforge.net/mirror-brand.list";
     private static final String INSTALL_PROFILE = "install_profile.json";
 
+    protected final Log log;
+
+    /**
+     * @param log The log of the version being processed.
+     */
+    public MavenUrlProcessor(Log log) {
+        this.log = log;
+    }
+
     @Override
     public InstallerFormat process(MavenNotation notation, JarContents content, InstallerFormat format) throws IOException {
         if (!content.contains(INSTALL_PROFILE)) {
-            LOGGER.error("Missing {} in {}", INSTALL_PROFILE, notation);
+            log.error("Missing %s in %s", INSTALL_PROFILE, notation);
             return format;
         }
 
-        JsonObject install;
-        try (Reader reader = new InputStreamReader(content.getInput(INSTALL_PROFILE))) {
-            install = Utils.GSON.fromJson(reader, JsonObject.class);
-        }
+        JsonObject install = loadJson(content, INSTALL_PROFILE);
 
         boolean changed = false;
         switch (format) {
@@ -71,15 +71,19 @@ public class MavenUrlProcessor implements InstallerProcessor {
         return format;
     }
 
+    // The parsed json is shared with the other processors, it is serialized once when the jar is saved.
+    protected JsonObject loadJson(JarContents content, String name) throws IOException {
+        return content.getJson(name);
+    }
+
     protected void writeProfile(JarContents content, JsonObject install, MavenNotation notation) {
-        byte[] bytes = Utils.GSON.toJson(install).getBytes(StandardCharsets.UTF_8);
-        LOGGER.debug("Updating {} for {}", INSTALL_PROFILE, notation);
-        content.write(INSTALL_PROFILE, bytes);
+        log.debug("Updating %s for %s", INSTALL_PROFILE, notation);
+        content.jsonChanged(INSTALL_PROFILE);
     }
 
     protected void writeVersion(JarContents content, String name, JsonObject version) {
-        LOGGER.debug("Updating json {}.", name);
-        content.write(name, Utils.GSON.toJson(version).getBytes(StandardCharsets.UTF_8));
+        log.debug("Updating json %s.", name);
+        content.jsonChanged(name);
     }
 
     private boolean rewriteInstallProfileV1(MavenNotation notation, JsonObject profile) {
@@ -93,11 +97,11 @@ public class MavenUrlProcessor implements InstallerProcessor {
         // Ensure Mirror List exists and is updated.
         String mirrorList = getAsString(install, "mirrorList", null);
         if (mirrorList == null) {
-            LOGGER.debug("Adding Mirror List to {}", notation);
+            log.debug("Adding Mirror List to %s", notation);
             install.addProperty("mirrorList", MIRROR_BRAND);
             changed = true;
         } else if (!mirrorList.equals(MIRROR_BRAND)) {
-            LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, MIRROR_BRAND);
+            log.debug("Updating Mirror List from %s to %s", mirrorList, MIRROR_BRAND);
             install.addProperty("mirrorList", MIRROR_BRAND);
             changed = true;
         }
@@ -115,10 +119,7 @@ public class MavenUrlProcessor implements InstallerProcessor {
         if (!jar.contains(json))
             throw new RuntimeException("Missing version json: " + json);
 
-        JsonObject version;
-        try (Reader reader = new InputStreamReader(jar.getInput(json))) {
-            version = Utils.GSON.fromJson(reader, JsonObject.class);
-        }
+        JsonObject version = loadJson(jar, json);
 
         if (rewriteVersionJson(notation, version))
             writeVersion(jar, json, version);
@@ -126,11 +127,11 @@ public class MavenUrlProcessor implements InstallerProcessor {
         // Ensure Mirror List exists and is updated.
         String mirrorList = getAsString(install, "mirrorList", null);
         if (mirrorList == null) {
-            LOGGER.debug("Adding Mirror List to {}", notation);
+            log.debug("Adding Mirror List to %s", notation);
             install.addProperty("mirrorList", MIRROR_LIST);
             changed = true;
         } else if (!mirrorList.equals(MIRROR_LIST)) {
-            LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, MIRROR_LIST);
+            log.debug("Updating Mirror List from %s to %s", mirrorList, MIRROR_LIST);
             install.addProperty("mirrorList", MIRROR_LIST);
             changed = true;
         }
@@ -203,7 +204,7 @@ public class MavenUrlProcessor implements InstallerProcessor {
         }
 
         if (!origUrl.equals(url)) {
-            LOGGER.debug("Rewrote URL from {} to {} in {}", origUrl, url, notation);
+            log.debug("Rewrote URL from %s to %s in %s", origUrl, url, notation);
             json.addProperty("url", url);
             return true;
         }
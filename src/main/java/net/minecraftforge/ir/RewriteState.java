@@ -0,0 +1,156 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import com.google.gson.JsonSyntaxException;
+
+import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.Utils;
+import net.minecraftforge.util.hash.HashFunction;
+
+/**
+ * Remembers which installers were already processed with the current set of processors,
+ * so later runs can skip them without opening the jar.
+ * <p>
+ * Entries are keyed by the installer's path in the repo, and store the SHA-1 of the
+ * installer as it was left after processing. The size and modified time are kept so we
+ * only need to hash the file when it looks like it was touched.
+ */
+class RewriteState {
+    private static final Log LOGGER = new Log();
+    private static final String FILE_NAME = "rewrite_state.json";
+
+    private final Path file;
+    private final Path repo;
+    private final String fingerprint;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private RewriteState(Path file, Path repo, String fingerprint) {
+        this.file = file;
+        this.repo = repo;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @param fingerprint Identifies the processors and settings used, entries recorded
+     *                    with a different fingerprint are processed again.
+     */
+    static RewriteState load(Path cache, Path repo, String fingerprint) {
+        RewriteState ret = new RewriteState(cache.resolve(FILE_NAME), repo, fingerprint);
+        if (!Files.exists(ret.file))
+            return ret;
+
+        try (Reader reader = Files.newBufferedReader(ret.file, StandardCharsets.UTF_8)) {
+            Data data = Utils.GSON.fromJson(reader, Data.class);
+            if (data != null && data.versions != null)
+                ret.entries.putAll(data.versions);
+        } catch (IOException | JsonSyntaxException e) {
+            LOGGER.warn("Failed to read %s, processing everything: %s", ret.file, e.getMessage());
+        }
+        return ret;
+    }
+
+    private String key(Path installer) {
+        return repo.relativize(installer).toString().replace('\\', '/');
+    }
+
+    /**
+     * Checks if the installer is the one we left behind last time, with the same fingerprint.
+     * If it is, the dependencies found last time are added to the provided set.
+     */
+    boolean isUnchanged(Path installer, Set<String> deps) throws IOException {
+        Entry entry = entries.get(key(installer));
+        if (entry == null || !fingerprint.equals(entry.fingerprint))
+            return false;
+
+        long size = Files.size(installer);
+        long modified = Files.getLastModifiedTime(installer).toMillis();
+        if (size != entry.size)
+            return false;
+
+        if (modified != entry.modified) {
+            if (!HashFunction.SHA1.hash(installer.toFile()).equals(entry.sha1))
+                return false;
+            // Same data, just touched, so update the time to skip hashing next time.
+            entry.modified = modified;
+        }
+
+        if (entry.deps != null)
+            deps.addAll(entry.deps);
+        return true;
+    }
+
+    /**
+     * @param sha1 The installer's hash if it is already known, or null to compute it.
+     * @param timestamp The modified time the installer will have once any pending writes finish,
+     *                  or null to use the one it has now.
+     */
+    void record(Path installer, @Nullable String sha1, @Nullable FileTime timestamp, Set<String> deps) throws IOException {
+        Entry entry = new Entry();
+        entry.sha1 = sha1 != null ? sha1 : HashFunction.SHA1.hash(installer.toFile());
+        entry.size = Files.size(installer);
+        entry.modified = (timestamp != null ? timestamp : Files.getLastModifiedTime(installer)).toMillis();
+        entry.fingerprint = fingerprint;
+        entry.deps = new TreeSet<>(deps);
+        entries.put(key(installer), entry);
+    }
+
+    void save() {
+        Data data = new Data();
+        data.versions = new TreeMap<>(entries);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Utils.makeParents(file);
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                Utils.GSON.toJson(data, writer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save %s", file, e);
+        }
+    }
+
+    private static class Data {
+        Map<String, Entry> versions;
+    }
+
+    private static class Entry {
+        String sha1;
+        long size;
+        long modified;
+        String fingerprint;
+        Set<String> deps;
+    }
+}
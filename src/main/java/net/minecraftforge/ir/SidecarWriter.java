@@ -0,0 +1,154 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.OS;
+
+/**
+ * Writes the hash sidecars for saved installers in batches. Every file in a batch is written
+ * and timestamped first, then all of them are synced together, and only then renamed into place.
+ * So a sidecar never shows up before the data it describes is on disk, and we only wait on the
+ * disk once per batch instead of once per file.
+ */
+class SidecarWriter implements Closeable {
+    private final Log log;
+    private final int batchSize;
+    private List<Pending> pending = new ArrayList<>();
+    private int batches = 0;
+
+    SidecarWriter(Log log, int batchSize) {
+        this.log = log;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Queues the sidecars for a saved file, flushing the batch once it is full.
+     *
+     * @param hashes Sidecar extension -> hash
+     * @param timestamp Applied to the file and all its sidecars
+     * @param written Run once the sidecars are safely on disk, may be null
+     */
+    void add(Path file, Map<String, String> hashes, FileTime timestamp, @Nullable Runnable written) throws IOException {
+        List<Pending> batch;
+        synchronized (this) {
+            pending.add(new Pending(file, hashes, timestamp, written));
+            if (pending.size() < batchSize)
+                return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        write(batch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Writes whatever is queued, without waiting for the batch to fill up.
+     */
+    void flush() throws IOException {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (!batch.isEmpty())
+            write(batch);
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        long start = System.nanoTime();
+        List<Path> sync = new ArrayList<>();
+        List<Path[]> moves = new ArrayList<>();
+        Set<Path> dirs = new LinkedHashSet<>();
+
+        for (Pending entry : batch) {
+            for (Map.Entry<String, String> hash : entry.hashes.entrySet()) {
+                Path target = entry.file.resolveSibling(entry.file.getFileName() + "." + hash.getKey());
+                Path temp = target.resolveSibling('.' + target.getFileName().toString() + ".tmp");
+                Files.write(temp, hash.getValue().getBytes(StandardCharsets.UTF_8));
+                Files.setLastModifiedTime(temp, entry.timestamp);
+                sync.add(temp);
+                moves.add(new Path[] { temp, target });
+            }
+            Files.setLastModifiedTime(entry.file, entry.timestamp);
+            sync.add(entry.file);
+            dirs.add(entry.file.getParent());
+        }
+
+        for (Path file : sync) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+
+        for (Path[] move : moves)
+            Files.move(move[0], move[1], StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Makes the renames durable. Windows doesn't let us open a directory, and commits renames on its own.
+        if (OS.CURRENT != OS.WINDOWS) {
+            boolean warned = false;
+            for (Path dir : dirs) {
+                try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                    channel.force(true);
+                } catch (IOException e) {
+                    // Only this directory, the rest of the batch still gets synced.
+                    if (!warned)
+                        log.warn("  Failed to sync directory %s, renames in it may not survive a crash: %s", dir, e.getMessage());
+                    warned = true;
+                }
+            }
+        }
+
+        for (Pending entry : batch) {
+            if (entry.written != null)
+                entry.written.run();
+        }
+
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        int id;
+        synchronized (this) {
+            id = ++batches;
+        }
+        log.info("  Sidecar batch %d: %d versions, %d files in %d ms (%.1f files/s)",
+            id, batch.size(), sync.size(), millis, sync.size() * 1000.0 / millis);
+    }
+
+    private record Pending(Path file, Map<String, String> hashes, FileTime timestamp, @Nullable Runnable written) {}
+}
@@ -47,13 +47,16 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.jar.JarFile;
@@ -87,6 +90,11 @@ public class InstallerTester {
         var endO      = parser.acceptsAll(asList("e", "end"), "Ending version to test.").withRequiredArg().ofType(ComparableVersion.class);
         var forceO    = parser.acceptsAll(asList("force"), "Forces tasks to rerun as if the cache missed");
         var ltsO      = parser.acceptsAll(asList("lts"), "Only tests using LTS java versions");
+        var virtualO  = parser.acceptsAll(asList("virtual-threads"), "Runs downloads and tests on virtual threads, with tests still limited to one per processor");
+        var linkO     = parser.acceptsAll(asList("link"), "Hard links libraries and vanilla jars from the cache into each test instead of copying them, only safe if nothing writes to them in place");
+        var offlineO  = parser.acceptsAll(asList("offline"), "Only uses files already in the cache, anything missing is an error");
+        var prefetchO = parser.acceptsAll(asList("prefetch"), "Downloads installers, libraries and java into the cache without running any tests");
+        var memoryO   = parser.acceptsAll(asList("memory"), "Memory in MB that running tests may use at once, defaults to 3/4 of the system's memory").withRequiredArg().ofType(Integer.class);
 
         // Tests, if any are specified, we will run just that test, if none are specified we run all tests.
         var testClientInstall = parser.acceptsAll(asList("client-install"), "Runs the client install test.");
@@ -111,6 +119,20 @@ public class InstallerTester {
         LOGGER.info(format, "lts", lts);
         var force = optSet.has(forceO);
         LOGGER.info(format, "force", force);
+        var link = optSet.has(linkO);
+        LOGGER.info(format, "link", link);
+        var virtual = optSet.has(virtualO);
+        LOGGER.info(format, "virtual-threads", virtual);
+        var offline = optSet.has(offlineO);
+        LOGGER.info(format, "offline", offline);
+        var prefetch = optSet.has(prefetchO);
+        LOGGER.info(format, "prefetch", prefetch);
+        var memory = optSet.has(memoryO) ? optSet.valueOf(memoryO) : 0;
+        LOGGER.info(format, "memory", memory == 0 ? "default" : memory + " MB");
+        if (offline && prefetch) {
+            LOGGER.error("Can not use --prefetch and --offline together");
+            return -1;
+        }
         boolean clientInstall = optSet.has(testClientInstall);
         boolean serverInstall = optSet.has(testServerInstall) || optSet.has(testServerRun);
         boolean serverRun = optSet.has(testServerRun);
@@ -132,6 +154,21 @@ public class InstallerTester {
         if (lts)
             builder.lts();
 
+        if (link)
+            builder.link();
+
+        if (virtual)
+            builder.virtual();
+
+        if (offline)
+            builder.offline();
+
+        if (prefetch)
+            builder.prefetch();
+
+        if (memory > 0)
+            builder.memory(memory);
+
         if (clientInstall || serverInstall || serverRun) {
             if (clientInstall)
                 builder.test(Test.INSTALL_CLIENT);
@@ -170,6 +207,11 @@ public class InstallerTester {
     private static class Builder {
         private boolean force = false;
         private boolean lts = false;
+        private boolean link = false;
+        private boolean virtual = false;
+        private boolean offline = false;
+        private boolean prefetch = false;
+        private int memory = 0;
         private String repo;
         private Path output;
         private Path cache;
@@ -194,6 +236,31 @@ public class InstallerTester {
             return this;
         }
 
+        public Builder link() {
+            this.link = true;
+            return this;
+        }
+
+        public Builder virtual() {
+            this.virtual = true;
+            return this;
+        }
+
+        public Builder offline() {
+            this.offline = true;
+            return this;
+        }
+
+        public Builder prefetch() {
+            this.prefetch = true;
+            return this;
+        }
+
+        public Builder memory(int value) {
+            this.memory = value;
+            return this;
+        }
+
         public Builder repo(String value) {
             this.repo = value;
             return this;
@@ -253,6 +320,7 @@ public class InstallerTester {
     private final MinecraftCache mcCache;
     private final MavenCache maven;
     private final Predicate<ComparableVersion> filter;
+    private final TestScheduler scheduler;
 
     private InstallerTester(Builder builder) {
         this.cfg = builder;
@@ -260,6 +328,7 @@ public class InstallerTester {
         this.reports = this.cfg.reports;
         this.cache = this.cfg.cache;
 
+        Utils.setOffline(this.cfg.offline);
         this.disco = new Disco(LOGGER, cache.toFile());
         this.mcCache = new MinecraftCache(LOGGER, cache);
         this.maven = new MavenCache(LOGGER, "maven", this.cfg.repo, cache);
@@ -277,6 +346,9 @@ public class InstallerTester {
                 filter = filter.and(v -> v.compareTo(cfg.end) < 0);
         }
         this.filter = filter;
+        this.scheduler = new TestScheduler(this.cfg.memory);
+        for (int x = 0; x < ThreadedTask.THREAD_COUNT; x++)
+            this.serverPorts.add(25566 + x);
     }
 
     private int run() {
@@ -306,6 +378,11 @@ public class InstallerTester {
 
         downloadLibraries(reports);
         downloadJava(reports);
+        if (this.cfg.prefetch) {
+            LOGGER.info("Prefetched into %s, later runs can use --offline", this.cache);
+            return 0;
+        }
+
         if (this.cfg.needs(Test.INSTALL_CLIENT))
             testSide(reports, true);
         if (this.cfg.needs(Test.INSTALL_SERVER) || this.cfg.needs(Test.RUN_SERVER))
@@ -355,6 +432,14 @@ public class InstallerTester {
         return ret;
     }
 
+    private <T> ThreadedTask<T> newTask(String name) {
+        return newTask(name, Function.identity());
+    }
+
+    private <T> ThreadedTask<T> newTask(String name, Function<Runnable, Runnable> wrapper) {
+        return this.cfg.virtual ? ThreadedTask.virtual(name, wrapper) : new ThreadedTask<>(name, wrapper);
+    }
+
     private <T extends Supplier<Report>> List<Report> consume(ThreadedTask<T> executor, Consumer<T> custom) {
         var ret = new ArrayList<Report>();
         executor.consume(t -> {
@@ -378,7 +463,7 @@ public class InstallerTester {
     private List<Report> downloadInstallers(List<Report> reports) {
         LOGGER.info("Downloading installers");
         try (var l = LOGGER.push()) {
-            var executor = new ThreadedTask<DownloadInstaller>("download-installers");
+            var executor = this.<DownloadInstaller>newTask("download-installers");
 
             for (var report : reports)
                 executor.submit(() -> downloadInstaller(report));
@@ -511,7 +596,7 @@ public class InstallerTester {
         }
 
         try (var l = LOGGER.push()) {
-            var executor = new ThreadedTask<String>("download-libraries");
+            var executor = this.<String>newTask("download-libraries");
 
             for (var version : versions) {
                 if (!this.mcCache.exists(version, "client.jar")) {
@@ -621,7 +706,7 @@ public class InstallerTester {
             return;
 
         record Info(int version, File path) {}
-        var executor = new ThreadedTask<Info>("java-download");
+        var executor = this.<Info>newTask("java-download");
         for (var version : javaVersions)
             executor.submit(() -> new Info(version, disco.find(version)));
 
@@ -637,20 +722,47 @@ public class InstallerTester {
         }
     }
 
-    private final AtomicInteger serverPortSupplier = new AtomicInteger(25566);
+    // One per test that can run at once. Tests only take one once they hold a processor, so there is always one free.
+    private final BlockingQueue<Integer> serverPorts = new ArrayBlockingQueue<>(ThreadedTask.THREAD_COUNT);
     private static ThreadLocal<Integer> serverPort = new ThreadLocal<Integer>();
 
+    // Lends the task a server port while it runs, set here rather than per worker thread so virtual threads don't each use up one.
+    private <T> Supplier<T> withPort(Supplier<T> task) {
+        return () -> {
+            int port;
+            try {
+                port = serverPorts.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            serverPort.set(port);
+            try {
+                return task.get();
+            } finally {
+                serverPort.remove();
+                serverPorts.add(port);
+            }
+        };
+    }
+
     private void testSide(List<Report> reports, boolean client) {
         LOGGER.info("Testing %s", client ? "Client" : "Server");
         var testInstall = client ? Test.INSTALL_CLIENT : Test.INSTALL_SERVER;
         var testRun = client ? null : Test.RUN_SERVER;
 
         try (var l = LOGGER.push()) {
+            LOGGER.info("Memory budget: %d MB", this.scheduler.budget());
+            this.scheduler.learn(reports, testInstall);
+            if (testRun != null)
+                this.scheduler.learn(reports, testRun);
+
             record Info(Report get) implements Supplier<Report> {}
-            var executor = new ThreadedTask<Info>("test-side", runner -> () -> {
-                serverPort.set(serverPortSupplier.getAndIncrement());
-                runner.run();
-            });
+            record Pending(TestScheduler.Cost cost, Supplier<Info> task) {}
+            var pending = new ArrayList<Pending>();
+            // Each test is its own process, which keeps a processor busy, so only wait on that many at once.
+            // The scheduler takes the processor once the memory is free, so a waiting test doesn't hold one.
+            var executor = this.<Info>newTask("test-side");
 
             for (var report : reports) {
                 if (report.profile() == null)
@@ -673,15 +785,19 @@ public class InstallerTester {
                 var output = this.cfg.output.resolve(report.version());
                 var target = output.resolve(client ? "client" : "server");
                 var results = this.cfg.reports.resolve(report.version());
+                var mcVer = report.profile().getMinecraftVersion();
+                var version = this.mcCache.getVersion(mcVer);
+                var java = version == null ? 8 : lts(version.getJavaVersion(mcVer));
+                var cost = this.scheduler.estimate(report, testInstall, needRun ? testRun : null, java);
 
-                executor.submit(() -> {
+                pending.add(new Pending(cost, () -> {
                     //if (needInstall)
                     //    Utils.delete(root);
                     mkdirs(target);
                     copyVanilla(report, target, client);
                     copyLibraries(report, target, client);
 
-                    var install = report.add(runInstall(report, target, client));
+                    var install = report.add(timed(() -> runInstall(report, target, client)));
                     if (needInstall)
                         install.save(results);
 
@@ -693,7 +809,7 @@ public class InstallerTester {
                         if (client)
                             run = null;
                         else
-                            run = report.add(runServer(report, target));
+                            run = report.add(timed(() -> runServer(report, target)));
 
                         if (run != null) {
                             run.save(results);
@@ -713,9 +829,14 @@ public class InstallerTester {
                     }
 
                     return new Info(report);
-                });
+                }));
             }
 
+            // Longest first, the executor starts them in the order they are submitted.
+            pending.sort(Comparator.comparingLong((Pending p) -> p.cost().millis()).reversed());
+            for (var task : pending)
+                executor.submit(this.scheduler.admit(task.cost(), withPort(task.task())));
+
             var progress = new Progress(LOGGER, executor.size());
             consume(executor, info -> {
                 var report = info.get();
@@ -744,6 +865,12 @@ public class InstallerTester {
         }
     }
 
+    private static Test timed(Supplier<Test> test) {
+        long start = System.nanoTime();
+        var ret = test.get();
+        return ret.duration((System.nanoTime() - start) / 1_000_000);
+    }
+
     private Test runInstall(Report report, Path target, boolean client) {
         var ret = new TestInstall(report, client);
         var side = client ? "Client" : "Server";
@@ -936,13 +1063,13 @@ public class InstallerTester {
 
         try {
             mkdirs(target.getParent());
-            Files.copy(cacheJar, target, StandardCopyOption.REPLACE_EXISTING);
+            materialize(cacheJar, target);
 
             if (client) {
                 var json = mcCache.getVersionJson(mcver);
                 if (json != null) {
                     target = root.resolve("versions").resolve(mcver).resolve(mcver + ".json");
-                    Files.copy(json, target, StandardCopyOption.REPLACE_EXISTING);
+                    materialize(json, target);
                 }
             }
             return true;
@@ -952,6 +1079,19 @@ public class InstallerTester {
         }
     }
 
+    // Tests get deleted once they finish, so linking to the cache saves writing every library for every test.
+    // But a link is the cached file itself, so anything writing to it in place would corrupt the cache.
+    private void materialize(Path cached, Path target) throws IOException {
+        if (this.cfg.link) {
+            Utils.link(cached, target);
+        } else {
+            Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING);
+            // Copies keep the permissions, and the cached files may be read only.
+            if (!Files.isWritable(target))
+                target.toFile().setWritable(true);
+        }
+    }
+
     private boolean copyLibraries(Report report, Path install, boolean client) {
         var libraries = report.profile().getLibraries(client);
         var log = report.log();
@@ -978,7 +1118,7 @@ public class InstallerTester {
                 Path target = installL.resolve(dl.path);
                 try {
                     mkdirs(target.getParent());
-                    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+                    materialize(path, target);
                 } catch (IOException e) {
                     log.error("Failed to copy library %s", lib.name);
                     return false;
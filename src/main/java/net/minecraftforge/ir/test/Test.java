@@ -51,6 +51,7 @@ abstract class Test {
     protected boolean success = false;
     protected String message;
     protected Set<String> globals = new HashSet<>();
+    protected long duration; // Milliseconds, 0 if unknown
 
     private List<String> log = new ArrayList<>();
 
@@ -59,17 +60,20 @@ abstract class Test {
         String message;
         Collection<String> globals;
         int version;
+        long duration;
 
-        protected CacheData(int version, boolean success, String message, Collection<String> globals) {
+        protected CacheData(int version, boolean success, String message, Collection<String> globals, long duration) {
             this.success = success;
             this.message = message;
             this.globals = globals;
             this.version = version;
+            this.duration = duration;
         }
 
         protected void apply(Test t) {
             t.success = success;
             t.message = message;
+            t.duration = duration;
             t.globals.clear();
             if (globals != null)
                 t.globals.addAll(globals);
@@ -149,6 +153,15 @@ abstract class Test {
         return this.version;
     }
 
+    public long duration() {
+        return duration;
+    }
+
+    public Test duration(long millis) {
+        this.duration = millis;
+        return this;
+    }
+
     public boolean isSuccess() {
         return success;
     }
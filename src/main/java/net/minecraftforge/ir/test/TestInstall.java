@@ -70,17 +70,17 @@ class TestInstall extends Test {
 
     @Override
     Object getCacheData() {
-        return new CacheData(version, success, message, globals, files, failedHash);
+        return new CacheData(version, success, message, globals, duration, files, failedHash);
     }
 
     protected static class CacheData extends Test.CacheData {
         Collection<String> files;
         String failedHash;
 
-        protected CacheData(int version, boolean success, String message, Collection<String> globals,
+        protected CacheData(int version, boolean success, String message, Collection<String> globals, long duration,
             Collection<String> files, String failedHash
         ) {
-            super(version, success, message, globals);
+            super(version, success, message, globals, duration);
             this.files = files;
             this.failedHash = failedHash;
         }
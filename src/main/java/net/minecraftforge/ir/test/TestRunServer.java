@@ -51,7 +51,7 @@ class TestRunServer extends Test {
 
     @Override
     Object getCacheData() {
-        return new CacheData(version, success, message, globals, requiresLegacyJavaFixer, incorrectServerJar);
+        return new CacheData(version, success, message, globals, duration, requiresLegacyJavaFixer, incorrectServerJar);
     }
 
     public void needsLegacyJavaFixer() {
@@ -71,8 +71,8 @@ class TestRunServer extends Test {
         protected boolean legacy_java_fixer;
         protected String incorrect_server_jar;
 
-        protected CacheData(int version, boolean success, String message, Collection<String> globals, boolean ljf, String jar) {
-            super(version, success, message, globals);
+        protected CacheData(int version, boolean success, String message, Collection<String> globals, long duration, boolean ljf, String jar) {
+            super(version, success, message, globals, duration);
             this.legacy_java_fixer = ljf;
             this.incorrect_server_jar = jar;
         }
@@ -0,0 +1,135 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import net.minecraftforge.ir.InstallerFormat;
+
+/**
+ * Decides how many tests can run at once, and in what order. Each test starts its own JVM, so
+ * besides a processor it needs memory, which we hand out from a fixed budget. Tests are started
+ * longest first, so the slow ones are not left running alone at the end.
+ * <p>
+ * Expected durations come from the last time the test ran, or the average of other versions
+ * with the same installer format if this one never ran.
+ */
+class TestScheduler {
+    // Rough peak memory of the child JVM, in MB.
+    private static final int INSTALL_V1_MEMORY = 512;
+    private static final int INSTALL_V2_MEMORY = 1536;
+    private static final int RUN_MEMORY = 1024;
+    private static final int RUN_MODERN_MEMORY = 2048; // Java 17+ versions are the newer, bigger, Minecraft versions
+    // Used when there is no history at all, in milliseconds.
+    private static final long INSTALL_V1_MILLIS = 15_000;
+    private static final long INSTALL_V2_MILLIS = 120_000;
+    private static final long RUN_MILLIS = 60_000;
+
+    record Cost(int memory, long millis) {}
+
+    private final int budget;
+    private final Semaphore memory;
+    private final Map<String, Long> averages = new HashMap<>();
+
+    /**
+     * @param budget Memory in MB tests may use at once, or 0 to use most of the machine's memory.
+     */
+    TestScheduler(int budget) {
+        this.budget = budget > 0 ? budget : defaultBudget();
+        this.memory = new Semaphore(this.budget, true);
+    }
+
+    int budget() {
+        return this.budget;
+    }
+
+    private static int defaultBudget() {
+        long total = 0;
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os)
+            total = os.getTotalMemorySize();
+        if (total <= 0)
+            total = Runtime.getRuntime().maxMemory() * 4;
+        // Leave a quarter for us and the rest of the system.
+        return (int)Math.max(INSTALL_V2_MEMORY, total / 4 * 3 / (1024 * 1024));
+    }
+
+    /**
+     * Averages the recorded durations of the given test, per installer format.
+     */
+    void learn(List<Report> reports, Test.Name<?> test) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (var report : reports) {
+            var data = report.get(test);
+            if (report.profile() == null || data == null || data.duration() <= 0)
+                continue;
+            var total = totals.computeIfAbsent(key(test, report.profile().getFormat()), k -> new long[2]);
+            total[0] += data.duration();
+            total[1]++;
+        }
+        totals.forEach((k, v) -> averages.put(k, v[0] / v[1]));
+    }
+
+    private static String key(Test.Name<?> test, InstallerFormat format) {
+        return test.name() + '/' + format;
+    }
+
+    /**
+     * @param run The run test, or null if it will not be run.
+     * @param java The Java version the tests will use.
+     */
+    Cost estimate(Report report, Test.Name<?> install, Test.Name<?> run, int java) {
+        var format = report.profile().getFormat();
+        int memory = format == InstallerFormat.V1 ? INSTALL_V1_MEMORY : INSTALL_V2_MEMORY;
+        long millis = millis(report, install, format == InstallerFormat.V1 ? INSTALL_V1_MILLIS : INSTALL_V2_MILLIS);
+        if (run != null) {
+            memory = Math.max(memory, java >= 17 ? RUN_MODERN_MEMORY : RUN_MEMORY);
+            millis += millis(report, run, RUN_MILLIS);
+        }
+        return new Cost(memory, millis);
+    }
+
+    private long millis(Report report, Test.Name<?> test, long _default) {
+        var last = report.get(test);
+        if (last != null && last.duration() > 0)
+            return last.duration();
+        return averages.getOrDefault(key(test, report.profile().getFormat()), _default);
+    }
+
+    /**
+     * Wraps the task so it waits until the memory it needs is free, and then for a processor.
+     * Memory comes first, so tasks waiting on it don't keep processors from the ones that fit.
+     * Tasks needing more than the whole budget take all of it, so they run alone instead of never.
+     */
+    <T> Supplier<T> admit(Cost cost, Supplier<T> task) {
+        int permits = Math.min(cost.memory(), this.budget);
+        return () -> {
+            this.memory.acquireUninterruptibly(permits);
+            try {
+                return ThreadedTask.cpu(task);
+            } finally {
+                this.memory.release(permits);
+            }
+        };
+    }
+}
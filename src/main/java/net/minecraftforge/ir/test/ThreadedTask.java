@@ -27,6 +27,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -34,6 +36,8 @@ import java.util.function.Supplier;
 
 class ThreadedTask<T> {
     public static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    // Shared by every task, so CPU heavy work stays at one per processor however many threads there are.
+    private static final Semaphore CPU = new Semaphore(THREAD_COUNT);
     private final LinkedBlockingQueue<CompletableFuture<T>> completed = new LinkedBlockingQueue<>();
     private final Set<CompletableFuture<T>> tasks = new HashSet<>();
 
@@ -56,10 +60,30 @@ class ThreadedTask<T> {
     }
 
     ThreadedTask(String name, int threads, Function<Runnable, Runnable> wrapper) {
+        this(name, threads, wrapper, false);
+    }
+
+    private ThreadedTask(String name, int threads, Function<Runnable, Runnable> wrapper, boolean virtual) {
         this.name = name;
         this.threadGroup = new ThreadGroup(name);
         this.wrapper = wrapper;
-        this.executors = Executors.newFixedThreadPool(threads, this::newThread);
+        if (virtual) {
+            ThreadFactory factory = Thread.ofVirtual().name(name + '-', 1).factory();
+            this.executors = Executors.newThreadPerTaskExecutor(r -> factory.newThread(wrapper.apply(r)));
+        } else
+            this.executors = Executors.newFixedThreadPool(threads, this::newThread);
+    }
+
+    /**
+     * Runs every task on its own virtual thread, for tasks that spend most of their time waiting
+     * on the network or child processes. Wrap them with {@link #cpu(Supplier)} if they do more than wait.
+     */
+    static <T> ThreadedTask<T> virtual(String name) {
+        return virtual(name, Function.identity());
+    }
+
+    static <T> ThreadedTask<T> virtual(String name, Function<Runnable, Runnable> wrapper) {
+        return new ThreadedTask<>(name, 0, wrapper, true);
     }
 
     public int size() {
@@ -81,6 +105,18 @@ class ThreadedTask<T> {
         future.whenComplete((result, throwable) -> completed.add(future));
     }
 
+    /**
+     * Runs the task once a processor is free, for tasks that need something else first.
+     */
+    static <T> T cpu(Supplier<T> task) {
+        CPU.acquireUninterruptibly();
+        try {
+            return task.get();
+        } finally {
+            CPU.release();
+        }
+    }
+
     public void consume(Consumer<T> consumer) {
         while (!tasks.isEmpty()) {
             try {
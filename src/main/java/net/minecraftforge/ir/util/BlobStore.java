@@ -0,0 +1,215 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.minecraftforge.util.hash.HashFunction;
+
+/**
+ * Content addressed storage shared by every cache under the same root. Files are stored once under
+ * {@code blobs/<first two>/<sha1>}, and the paths the caches hand out are hard links to them, so the
+ * same library from two mavens, or two identical jars, only take up space once. Stored files are
+ * read only, as writing to one would change every path linked to it. If the file system has no
+ * hard links, or this is Windows, files are left where they are.
+ * <p>
+ * It also remembers the SHA-1 of every file it has seen along with its size and modified time, so
+ * checking a cached file against an expected hash doesn't need to read it again unless it changed.
+ * The index is a log that is only ever appended to, with later lines replacing earlier ones, so it
+ * is always up to date on disk without needing to be saved. It is compacted when it is loaded.
+ */
+public class BlobStore {
+    private static final Log LOGGER = new Log();
+    private static final String DIR_NAME = "blobs";
+    private static final String INDEX_NAME = "index.log";
+    private static final Map<Path, BlobStore> STORES = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Path blobs;
+    private final Path indexFile;
+    private final Map<String, Entry> index = new HashMap<>();
+    private BufferedWriter writer;
+    private Boolean links; // Null until checked
+
+    /**
+     * @return The store for the given cache root, every cache using the same root shares it.
+     */
+    public static BlobStore of(Path root) {
+        return STORES.computeIfAbsent(root.toAbsolutePath().normalize(), BlobStore::new);
+    }
+
+    private BlobStore(Path root) {
+        this.root = root;
+        this.blobs = root.resolve(DIR_NAME);
+        this.indexFile = this.blobs.resolve(INDEX_NAME);
+        load();
+    }
+
+    private String key(Path file) {
+        return root.relativize(file.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    private Path blob(String sha1) {
+        return blobs.resolve(sha1.substring(0, 2)).resolve(sha1);
+    }
+
+    /**
+     * Returns the SHA-1 of the file, only reading it if it changed since we last saw it.
+     */
+    public String sha1(Path file) throws IOException {
+        var key = key(file);
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (this) {
+            var entry = index.get(key);
+            if (entry != null && entry.matches(attrs))
+                return entry.sha1;
+        }
+
+        var sha1 = HashFunction.SHA1.hash(file.toFile());
+        record(key, sha1, attrs);
+        return sha1;
+    }
+
+    /**
+     * Stores a newly downloaded file, by linking it into the store. If the same data is already stored
+     * the new file is replaced with a link to the existing copy. The file never goes missing while this
+     * happens, so other threads can keep checking if it exists.
+     */
+    public void store(Path file) throws IOException {
+        var sha1 = sha1(file);
+        if (!supportsLinks())
+            return;
+        var blob = blob(sha1);
+
+        if (Files.exists(blob) && Files.size(blob) == Files.size(file)) {
+            if (Files.isSameFile(blob, file))
+                return;
+            Utils.link(blob, file);
+        } else {
+            // The blob becomes a second name for the file, so the data is never copied.
+            Utils.link(file, Utils.makeParents(blob));
+        }
+        blob.toFile().setReadOnly();
+        record(key(file), sha1, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    // Checked once by linking a file in the store, so a file system without links doesn't get every file copied.
+    private synchronized boolean supportsLinks() {
+        if (links == null && OS.CURRENT == OS.WINDOWS) {
+            // NTFS has links, but one read only flag for all of them, and won't delete a read only file.
+            // So every deleted link would have to clear the flag the store relies on.
+            links = false;
+        } else if (links == null) {
+            var probe = blobs.resolve("link.probe");
+            var link = blobs.resolve("link.probe.link");
+            try {
+                Files.createDirectories(blobs);
+                Files.deleteIfExists(link);
+                Files.write(probe, new byte[0]);
+                Files.createLink(link, probe);
+                links = true;
+            } catch (UnsupportedOperationException | IOException e) {
+                LOGGER.warn("Hard links are not supported in %s, cached files will not be deduplicated: %s", blobs, e.getMessage());
+                links = false;
+            }
+            try {
+                Files.deleteIfExists(link);
+                Files.deleteIfExists(probe);
+            } catch (IOException e) {
+                // Harmless, it is checked again next run either way
+            }
+        }
+        return links;
+    }
+
+    private synchronized void record(String key, String sha1, BasicFileAttributes attrs) {
+        var entry = new Entry(sha1, attrs.size(), attrs.lastModifiedTime().toMillis());
+        if (entry.equals(index.put(key, entry)))
+            return;
+
+        try {
+            if (writer == null) {
+                Utils.makeParents(indexFile);
+                writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(entry.sha1 + '\t' + entry.size + '\t' + entry.modified + '\t' + key + '\n');
+            writer.flush();
+        } catch (IOException e) {
+            // The index is only a shortcut, so we just hash again next time.
+            LOGGER.warn("Failed to write %s: %s", indexFile, e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile))
+            return;
+
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                var parts = line.split("\t", 4);
+                if (parts.length != 4)
+                    continue; // Partial line from an interrupted run
+                try {
+                    index.put(parts[3], new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read %s, hashing everything: %s", indexFile, e.getMessage());
+            return;
+        }
+
+        if (lines > index.size() * 2)
+            compact();
+    }
+
+    private void compact() {
+        var temp = indexFile.resolveSibling(INDEX_NAME + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (var e : index.entrySet())
+                    out.write(e.getValue().sha1 + '\t' + e.getValue().size + '\t' + e.getValue().modified + '\t' + e.getKey() + '\n');
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact %s: %s", indexFile, e.getMessage());
+        }
+    }
+
+    private record Entry(String sha1, long size, long modified) {
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+}
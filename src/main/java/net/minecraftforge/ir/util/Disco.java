@@ -57,7 +57,7 @@ public class Disco {
         }
 
         // Could not find it with a locator, lets try downloading it.
-        if (ret == null) {
+        if (ret == null && !Utils.isOffline()) {
             IJavaInstall install = disco.provision(version);
             if (install != null)
                 ret = install.home();
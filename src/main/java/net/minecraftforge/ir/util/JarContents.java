@@ -20,14 +20,20 @@ package net.minecraftforge.ir.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -35,57 +41,79 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
 
 import net.covers1624.quack.util.HashUtils;
 
-public class JarContents {
-    private static final Logger LOGGER = LogManager.getLogger();
+public class JarContents implements Closeable {
+    private static final Log LOGGER = new Log();
     private static final long DEFAULT_TIME = 1337; // Some JREs don't support time of 0, so use this
     public static final String MANIFEST = "META-INF/MANIFEST.MF";
     private static final HashFunction SHA256 = Hashing.sha256();
 
+    /**
+     * Opens the jar, only reading its central directory. Entries are inflated on demand
+     * when something asks for their data, so the returned object must be closed.
+     */
     public static JarContents loadJar(File path) throws IOException {
-        Map<String, byte[]> data = new HashMap<>();
+        return loadJar(path, LOGGER);
+    }
+
+    /**
+     * @param log Where anything noticed while processing the jar is logged, so it stays with the rest of the version's output.
+     */
+    public static JarContents loadJar(File path, Log log) throws IOException {
+        Map<String, ZipReader.Entry> entries = new HashMap<>();
         Map<String, Long> timestamps = new HashMap<>();
         if (!path.exists())
-            return new JarContents(data, timestamps);
-
-        try (ZipFile zf = new ZipFile(path)) {
-            Enumeration<? extends ZipEntry> enu = zf.entries();
-            while (enu.hasMoreElements()) {
-                ZipEntry ent = enu.nextElement();
-                String name = ent.getName();
-                timestamps.put(name, ent.getTime());
-                if (ent.isDirectory())
-                    continue;
-                try (InputStream is = zf.getInputStream(ent)) {
-                    data.put(name, Utils.toBytes(is));
-                }
+            return new JarContents(log, null, entries, timestamps);
+
+        ZipReader zip = ZipReader.open(path.toPath());
+        for (ZipReader.Entry ent : zip.entries()) {
+            String name = ent.getName();
+            // We can't read them, and copying them raw would lose the flag saying they're encrypted.
+            if (ent.isEncrypted()) {
+                zip.close();
+                throw new ZipException("Encrypted entry " + name + " in " + path + " is not supported");
             }
+            timestamps.put(name, ent.getTime());
+            if (!ent.isDirectory())
+                entries.put(name, ent);
         }
 
-        return new JarContents(data, timestamps);
+        return new JarContents(log, zip, entries, timestamps);
     }
 
-    private final Map<String, byte[]> data;
+    private final Log log;
+    @Nullable
+    private final ZipReader zip;
+    private final Map<String, ZipReader.Entry> entries; // Untouched entries, still backed by the zip
+    private final Map<String, byte[]> data = new HashMap<>(); // Entries that have been written
     private final Map<String, Long> timestamps;
+    private final Map<String, Map<Class<?>, Object>> parsed = new HashMap<>(); // Values read from an entry, dropped when it changes
+    private final Set<String> dirtyJson = new HashSet<>(); // Json documents modified in place, serialized when next read or saved
+    // Lazily computed for sameData, concurrent as the latest installers are compared against from every thread
+    private final Map<String, Long> crcs = new ConcurrentHashMap<>(); // Written entries only, the zip has the rest
+    private final Map<String, HashCode> hashes = new ConcurrentHashMap<>();
     private boolean changed = false;
 
-    private JarContents(Map<String, byte[]> data, Map<String, Long> timestamps) {
-        this.data = data;
+    private JarContents(Log log, @Nullable ZipReader zip, Map<String, ZipReader.Entry> entries, Map<String, Long> timestamps) {
+        this.log = log;
+        this.zip = zip;
+        this.entries = entries;
         this.timestamps = timestamps;
     }
 
@@ -98,16 +126,103 @@ public class JarContents {
     }
 
     public boolean contains(String name) {
-        return this.data.containsKey(sanitize(name));
+        name = sanitize(name);
+        return this.data.containsKey(name) || this.entries.containsKey(name);
     }
 
     public Set<String> getFiles() {
-        return new HashSet<>(this.data.keySet());
+        Set<String> ret = new HashSet<>(this.entries.keySet());
+        ret.addAll(this.data.keySet());
+        return ret;
+    }
+
+    public InputStream getInput(String name) throws IOException {
+        name = sanitize(name);
+        flushJson(name);
+        byte[] d = this.data.get(name);
+        if (d != null)
+            return new ByteArrayInputStream(d);
+        ZipReader.Entry entry = this.entries.get(name);
+        return entry == null ? null : this.zip.getInput(entry);
+    }
+
+    public byte[] getBytes(String name) throws IOException {
+        name = sanitize(name);
+        flushJson(name);
+        byte[] d = this.data.get(name);
+        if (d != null)
+            return d.clone();
+        ZipReader.Entry entry = this.entries.get(name);
+        return entry == null ? null : this.zip.getBytes(entry);
+    }
+
+    /**
+     * Returns a value read from the entry's data, only reading it the first time it is requested
+     * until the entry is written or deleted. Returns null if the entry doesn't exist.
+     *
+     * @param type Identifies the kind of value, so multiple things can be read from the same entry.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getParsed(String name, Class<T> type, Parser<T> parser) throws IOException {
+        name = sanitize(name);
+        Map<Class<?>, Object> values = this.parsed.get(name);
+        if (values != null && values.containsKey(type))
+            return (T)values.get(type);
+
+        T ret = null;
+        try (InputStream is = getInput(name)) {
+            if (is != null)
+                ret = parser.parse(is);
+        }
+        this.parsed.computeIfAbsent(name, k -> new HashMap<>()).put(type, ret);
+        return ret;
+    }
+
+    /**
+     * Returns the entry parsed as a json object. The same instance is handed to everyone who asks,
+     * so anything that modifies it must call {@link #jsonChanged(String)} for it to be written back.
+     */
+    public JsonObject getJson(String name) throws IOException {
+        return getParsed(name, JsonObject.class, is -> {
+            try (Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+                return Utils.GSON.fromJson(reader, JsonObject.class);
+            }
+        });
+    }
+
+    /**
+     * Marks the object returned by {@link #getJson(String)} as modified. It is only serialized
+     * once, when the entry is next read or the jar is saved.
+     */
+    public void jsonChanged(String name) {
+        name = sanitize(name);
+        Map<Class<?>, Object> values = this.parsed.get(name);
+        if (values == null || values.get(JsonObject.class) == null)
+            throw new IllegalStateException("Json for " + name + " was never loaded");
+
+        // Anything else read from the old data is stale now
+        values.keySet().retainAll(Collections.singleton(JsonObject.class));
+        this.dirtyJson.add(name);
+        changed = true;
     }
 
-    public InputStream getInput(String name) {
-        byte[] d = this.data.get(sanitize(name));
-        return d == null ? null : new ByteArrayInputStream(d);
+    private void flushJson(String name) {
+        if (!this.dirtyJson.remove(name))
+            return;
+        JsonObject json = (JsonObject)this.parsed.get(name).get(JsonObject.class);
+        this.entries.remove(name);
+        this.data.put(name, Utils.GSON.toJson(json).getBytes(StandardCharsets.UTF_8));
+        dropHashes(name);
+    }
+
+    private void dropHashes(String name) {
+        this.crcs.remove(name);
+        this.hashes.remove(name);
+    }
+
+    @FunctionalInterface
+    public interface Parser<T> {
+        T parse(InputStream is) throws IOException;
     }
 
     long getTime(String name) {
@@ -124,12 +239,17 @@ public class JarContents {
         }
     }
 
-    public byte[] delete(String name) {
+    public boolean delete(String name) {
         name = sanitize(name);
-        if (contains(name))
+        boolean existed = this.data.remove(name) != null;
+        existed |= this.entries.remove(name) != null;
+        this.parsed.remove(name);
+        this.dirtyJson.remove(name);
+        dropHashes(name);
+        if (existed)
             changed = true;
         this.timestamps.remove(name);
-        return this.data.remove(name);
+        return existed;
     }
 
     public void write(String name, byte[] data) {
@@ -138,44 +258,82 @@ public class JarContents {
 
     void write(String name, byte[] data, long timestamp) {
         name = sanitize(name);
+        this.entries.remove(name);
+        this.parsed.remove(name);
+        this.dirtyJson.remove(name);
+        dropHashes(name);
         this.data.put(name, data);
         this.timestamps.put(name, timestamp);
         changed = true;
     }
 
-    public void save(File target) throws IOException {
-        if (changed())
-            cleanSignatures();
+    @Override
+    public void close() throws IOException {
+        if (this.zip != null)
+            this.zip.close();
+    }
 
+    /**
+     * Entries that were not written to are copied over in their compressed form, only
+     * new or modified entries are deflated again.
+     */
+    public void save(File target) throws IOException {
         if (!target.getParentFile().exists())
             target.getParentFile().mkdirs();
 
-        try (FileOutputStream fos = new FileOutputStream(target);
-             JarOutputStream out = new JarOutputStream(fos)
-            ) {
-            List<String> files = new ArrayList<>(this.data.keySet());
+        save(new FileOutputStream(target));
+    }
+
+    public void save(OutputStream os) throws IOException {
+        save(os, null);
+    }
+
+    public void save(OutputStream os, @Nullable JarSigner signer) throws IOException {
+        save(os, signer, false);
+    }
+
+    /**
+     * Writes the jar to the stream, and closes it.
+     *
+     * @param signer If not null, the jar is signed as it is written.
+     * @param reproducible If the entries should all get the same timestamp and no extra fields, see {@link ZipWriter}.
+     */
+    public void save(OutputStream os, @Nullable JarSigner signer, boolean reproducible) throws IOException {
+        try (ZipWriter out = new ZipWriter(os, reproducible)) {
+            for (String name : new ArrayList<>(this.dirtyJson))
+                flushJson(name);
+
+            if (changed())
+                cleanSignatures();
+
+            if (signer != null)
+                sign(signer);
+
+            // The manifest and signature files need to come first for JarInputStream to verify the jar.
+            List<String> files = new ArrayList<>(getFiles());
             Collections.sort(files, (l, r) -> {
-                if (l.equals(MANIFEST))
-                    return r.equals(MANIFEST) ? 0 : -1;
-                if (r.equals(MANIFEST))
-                    return l.equals(MANIFEST) ? 0 :  1;
-                return l.compareTo(r);
+                int lrank = l.equals(MANIFEST) ? 0 : isSignature(l) ? 1 : 2;
+                int rrank = r.equals(MANIFEST) ? 0 : isSignature(r) ? 1 : 2;
+                return lrank != rrank ? lrank - rrank : l.compareTo(r);
             });
 
             Set<String> dirs = new HashSet<String>();
             for (String file : files) {
                 makeDirectory(out, dirs, file);
-                ZipEntry entry = new ZipEntry(file);
-                entry.setTime(getTime(file));
-                out.putNextEntry(entry);
-                out.write(this.data.get(file));
+                byte[] data = this.data.get(file);
+                if (data != null) {
+                    out.write(file, getTime(file), data);
+                } else {
+                    ZipReader.Entry entry = this.entries.get(file);
+                    try (InputStream is = this.zip.getRawInput(entry)) {
+                        out.writeRaw(file, getTime(file), entry, is);
+                    }
+                }
             }
-
-            out.flush();
         }
     }
 
-    private void makeDirectory(JarOutputStream out, Set<String> added, String path) throws IOException {
+    private void makeDirectory(ZipWriter out, Set<String> added, String path) throws IOException {
         if (added.contains(path))
             return;
         int idx = path.lastIndexOf('/');
@@ -184,19 +342,55 @@ public class JarContents {
             if (sidx != -1)
                 makeDirectory(out, added, path.substring(0, sidx + 1));
 
-            ZipEntry entry = new ZipEntry(path);
-            entry.setTime(getTime(path));
-            out.putNextEntry(entry);
+            out.writeDirectory(path, getTime(path));
             added.add(path);
         } else if (idx != -1) {
             makeDirectory(out, added, path.substring(0, idx + 1));
         }
     }
 
-    public void merge(JarContents other, boolean overwrite) {
-        for (String file : other.data.keySet()) {
-            if (overwrite || !this.data.containsKey(file))
-                write(file, other.data.get(file), other.getTime(file));
+    private void sign(JarSigner signer) throws IOException {
+        // Any existing signatures are for a different manifest.
+        getFiles().stream()
+            .filter(JarContents::isSignature)
+            .forEach(this::delete);
+
+        Map<String, byte[]> digests = new TreeMap<>();
+        for (String file : getFiles()) {
+            if (file.equals(MANIFEST))
+                continue;
+            MessageDigest digest = JarSigner.digest();
+            try (InputStream is = getInput(file)) {
+                is.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+            }
+            digests.put(file, digest.digest());
+        }
+
+        Manifest mf;
+        if (contains(MANIFEST)) {
+            try (InputStream is = getInput(MANIFEST)) {
+                mf = new Manifest(is);
+            }
+        } else {
+            mf = new Manifest();
+        }
+        JarSigner.addDigests(mf, digests);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        mf.write(os);
+        byte[] manifest = os.toByteArray();
+        byte[] signature = signer.signatureFile(manifest);
+
+        long time = getTime(MANIFEST);
+        write(MANIFEST, manifest, time);
+        write(signer.getSignatureFile(), signature, time);
+        write(signer.getBlockFile(), signer.sign(signature), time);
+    }
+
+    public void merge(JarContents other, boolean overwrite) throws IOException {
+        for (String file : other.getFiles()) {
+            if (overwrite || !this.contains(file))
+                write(file, other.getBytes(file), other.getTime(file));
         }
         for (String file : other.timestamps.keySet()) {
             if (!file.endsWith("/"))
@@ -206,6 +400,9 @@ public class JarContents {
         }
     }
 
+    /**
+     * Digests are kept between calls, so comparing many jars against the same one only hashes it once.
+     */
     public boolean sameData(JarContents other, Set<String> whitelist) throws IOException {
         for (String file : getFiles()) {
             if (whitelist.contains(file))
@@ -214,15 +411,40 @@ public class JarContents {
             if (!other.contains(file))
                 return false;
 
-            HashCode me = HashUtils.hash(SHA256, this.getInput(file));
-            HashCode them = HashUtils.hash(SHA256, other.getInput(file));
-
-            if (!me.equals(them))
+            // The CRC is free for anything still in the zip, so only hash when those match.
+            if (this.crc(file) != other.crc(file) || !this.sha256(file).equals(other.sha256(file)))
                 return false;
         }
         return true;
     }
 
+    private long crc(String name) throws IOException {
+        flushJson(name);
+        ZipReader.Entry entry = this.entries.get(name);
+        if (entry != null)
+            return entry.getCrc();
+
+        Long ret = this.crcs.get(name);
+        if (ret == null) {
+            CRC32 crc = new CRC32();
+            crc.update(this.data.get(name));
+            ret = crc.getValue();
+            this.crcs.put(name, ret);
+        }
+        return ret;
+    }
+
+    private HashCode sha256(String name) throws IOException {
+        flushJson(name);
+        HashCode ret = this.hashes.get(name);
+        if (ret == null) {
+            ZipReader.Entry entry = this.entries.get(name);
+            ret = entry != null ? SHA256.hashBytes(this.zip.getData(entry)) : SHA256.hashBytes(this.data.get(name));
+            this.hashes.put(name, ret);
+        }
+        return ret;
+    }
+
     @SuppressWarnings("deprecation")
     private void cleanSignatures() throws IOException {
         boolean invalid = false;
@@ -255,7 +477,7 @@ public class JarContents {
                         String actual = HashUtils.hash(func, is).toString();
                         String expected = HashCode.fromBytes(Base64.getDecoder().decode(entry.getValue().getValue(key))).toString();
                         if (!expected.equals(actual)) {
-                            LOGGER.info("Installer manifest hash mismatch, stripping signatures");
+                            log.info("Installer manifest hash mismatch, stripping signatures");
                             invalid = true;
                             break;
                         }
@@ -282,7 +504,7 @@ public class JarContents {
             os.flush();
             this.write(MANIFEST, os.toByteArray());
 
-            List<String> files = this.data.keySet().stream()
+            List<String> files = getFiles().stream()
             .filter(JarContents::isSignature)
             .collect(Collectors.toList());
             files.forEach(this::delete);
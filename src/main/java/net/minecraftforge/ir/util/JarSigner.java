@@ -0,0 +1,276 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Signs jars the same way jarsigner does, without forking a new JVM for every jar.
+ * The key and certificate chain are loaded once and then used from any thread.
+ * <p>
+ * Produces a SHA-256 digest for every entry in the manifest, a .SF file with the digests of
+ * the manifest's sections, and a PKCS#7 signature block of the .SF file.
+ */
+public class JarSigner {
+    private static final String DIGEST = "SHA-256";
+    private static final byte[] SHA256_OID = oid(2, 16, 840, 1, 101, 3, 4, 2, 1);
+    private static final byte[] DATA_OID = oid(1, 2, 840, 113549, 1, 7, 1);
+    private static final byte[] SIGNED_DATA_OID = oid(1, 2, 840, 113549, 1, 7, 2);
+
+    private final PrivateKey key;
+    private final Certificate[] chain;
+    private final String signatureAlgorithm;
+    private final byte[] encryptionAlgorithm;
+    private final String baseName;
+    private final String blockExtension;
+
+    public static JarSigner load(Path keyStore, String storePass, String alias, String keyPass) throws IOException {
+        try {
+            KeyStore ks = KeyStore.getInstance(keyStore.toFile(), storePass.toCharArray());
+            PrivateKey key = (PrivateKey)ks.getKey(alias, keyPass.toCharArray());
+            Certificate[] chain = ks.getCertificateChain(alias);
+            if (key == null || chain == null || chain.length == 0)
+                throw new IOException("Could not find private key and certificate chain for " + alias + " in " + keyStore);
+            return new JarSigner(alias, key, chain);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to load key " + alias + " from " + keyStore, e);
+        }
+    }
+
+    private JarSigner(String alias, PrivateKey key, Certificate[] chain) {
+        this.key = key;
+        this.chain = chain;
+
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                this.signatureAlgorithm = "SHA256withRSA";
+                this.encryptionAlgorithm = der(0x30, oid(1, 2, 840, 113549, 1, 1, 1), der(0x05));
+                break;
+            case "EC":
+                this.signatureAlgorithm = "SHA256withECDSA";
+                this.encryptionAlgorithm = der(0x30, oid(1, 2, 840, 10045, 4, 3, 2));
+                break;
+            case "DSA":
+                this.signatureAlgorithm = "SHA256withDSA";
+                this.encryptionAlgorithm = der(0x30, oid(2, 16, 840, 1, 101, 3, 4, 3, 2));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported key algorithm: " + key.getAlgorithm());
+        }
+        this.blockExtension = key.getAlgorithm();
+
+        // Same file name jarsigner derives from the alias
+        StringBuilder name = new StringBuilder();
+        for (char c : alias.toUpperCase(Locale.ENGLISH).toCharArray()) {
+            if (name.length() == 8)
+                break;
+            boolean valid = (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            name.append(valid ? c : '_');
+        }
+        this.baseName = name.toString();
+    }
+
+    public String getSignatureFile() {
+        return "META-INF/" + baseName + ".SF";
+    }
+
+    public String getBlockFile() {
+        return "META-INF/" + baseName + '.' + blockExtension;
+    }
+
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing standard digest algorithm", e);
+        }
+    }
+
+    /**
+     * Replaces any existing digests in the manifest with the ones provided.
+     *
+     * @param digests Entry name -> digest of its uncompressed data
+     */
+    public static void addDigests(Manifest manifest, Map<String, byte[]> digests) {
+        Attributes main = manifest.getMainAttributes();
+        if (main.getValue(Attributes.Name.MANIFEST_VERSION) == null)
+            main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        manifest.getEntries().values().removeIf(attrs -> {
+            attrs.keySet().removeIf(e -> e.toString().endsWith("-Digest"));
+            return attrs.isEmpty();
+        });
+
+        Base64.Encoder b64 = Base64.getEncoder();
+        for (Map.Entry<String, byte[]> entry : digests.entrySet()) {
+            Attributes attrs = manifest.getEntries().computeIfAbsent(entry.getKey(), k -> new Attributes());
+            attrs.putValue(DIGEST + "-Digest", b64.encodeToString(entry.getValue()));
+        }
+    }
+
+    /**
+     * Builds the signature file for the given manifest.
+     *
+     * @param manifest The manifest exactly as it will be written to the jar.
+     */
+    public byte[] signatureFile(byte[] manifest) throws IOException {
+        Base64.Encoder b64 = Base64.getEncoder();
+        Manifest sf = new Manifest();
+        Attributes main = sf.getMainAttributes();
+        main.put(Attributes.Name.SIGNATURE_VERSION, "1.0");
+        main.putValue("Created-By", "InstallerRewriter");
+        main.putValue(DIGEST + "-Digest-Manifest", b64.encodeToString(digest().digest(manifest)));
+
+        Map<String, byte[]> sections = sections(manifest);
+        for (Map.Entry<String, byte[]> section : sections.entrySet()) {
+            String digest = b64.encodeToString(digest().digest(section.getValue()));
+            if (section.getKey() == null)
+                main.putValue(DIGEST + "-Digest-Manifest-Main-Attributes", digest);
+            else
+                sf.getEntries().computeIfAbsent(section.getKey(), k -> new Attributes()).putValue(DIGEST + "-Digest", digest);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sf.write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Splits the raw manifest into its sections, each including its trailing blank line
+     * as that is what gets hashed.
+     *
+     * @return Entry name -> section bytes, the main section has a null name.
+     */
+    private static Map<String, byte[]> sections(byte[] manifest) {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        int start = 0;
+        for (int x = 0; x <= manifest.length - 4; x++) {
+            if (manifest[x] == '\r' && manifest[x + 1] == '\n' && manifest[x + 2] == '\r' && manifest[x + 3] == '\n') {
+                byte[] section = new byte[x + 4 - start];
+                System.arraycopy(manifest, start, section, 0, section.length);
+                ret.put(start == 0 ? null : sectionName(section), section);
+                start = x + 4;
+                x += 3;
+            }
+        }
+        return ret;
+    }
+
+    private static String sectionName(byte[] section) {
+        // Unfold continuation lines, and grab the Name attribute which is always first
+        String text = new String(section, StandardCharsets.UTF_8).replace("\r\n ", "");
+        int end = text.indexOf("\r\n");
+        return text.substring("Name: ".length(), end);
+    }
+
+    /**
+     * @return The PKCS#7 signature block for the signature file.
+     */
+    public byte[] sign(byte[] signatureFile) throws IOException {
+        try {
+            Signature signature = Signature.getInstance(signatureAlgorithm);
+            signature.initSign(key);
+            signature.update(signatureFile);
+            byte[] signed = signature.sign();
+
+            X509Certificate cert = (X509Certificate)chain[0];
+            byte[] digestAlgorithm = der(0x30, SHA256_OID, der(0x05));
+
+            byte[] signerInfo = der(0x30,
+                integer(1),
+                der(0x30, cert.getIssuerX500Principal().getEncoded(), der(0x02, cert.getSerialNumber().toByteArray())),
+                digestAlgorithm,
+                encryptionAlgorithm,
+                der(0x04, signed)
+            );
+
+            byte[][] certs = new byte[chain.length][];
+            for (int x = 0; x < chain.length; x++)
+                certs[x] = chain[x].getEncoded();
+
+            byte[] signedData = der(0x30,
+                integer(1),
+                der(0x31, digestAlgorithm),
+                der(0x30, DATA_OID),
+                der(0xA0, certs),
+                der(0x31, signerInfo)
+            );
+
+            return der(0x30, SIGNED_DATA_OID, der(0xA0, signedData));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to sign jar", e);
+        }
+    }
+
+    private static byte[] integer(int value) {
+        return der(0x02, new byte[] { (byte)value });
+    }
+
+    private static byte[] oid(int... arcs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(arcs[0] * 40 + arcs[1]);
+        for (int x = 2; x < arcs.length; x++) {
+            int arc = arcs[x];
+            int shift = 28;
+            while (shift > 0 && (arc >>> shift) == 0)
+                shift -= 7;
+            for (; shift > 0; shift -= 7)
+                out.write(0x80 | ((arc >>> shift) & 0x7F));
+            out.write(arc & 0x7F);
+        }
+        return der(0x06, out.toByteArray());
+    }
+
+    private static byte[] der(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents)
+            length += content.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = length > 0xFFFFFF ? 4 : length > 0xFFFF ? 3 : length > 0xFF ? 2 : 1;
+            out.write(0x80 | bytes);
+            for (int x = bytes - 1; x >= 0; x--)
+                out.write((length >>> (x * 8)) & 0xFF);
+        }
+        for (byte[] content : contents)
+            out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+}
@@ -22,7 +22,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import net.minecraftforge.util.download.DownloadUtils;
 import net.minecraftforge.util.hash.HashFunction;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -36,6 +35,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static net.minecraftforge.ir.util.Utils.sneak;
@@ -47,12 +49,15 @@ public class MavenCache {
     private final String repo;
 
     private final Path cache;
+    protected final BlobStore blobs;
+    private final Map<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
 
     public MavenCache(Log log, String name, String repo, Path root) {
         this.log = log;
         this.name = name;
         this.repo = repo;
         this.cache = root.resolve(this.name);
+        this.blobs = BlobStore.of(root);
     }
 
     public String url() {
@@ -73,10 +78,8 @@ public class MavenCache {
 
     public boolean exists(Artifact artifact) {
         var path = artifact.getPath();
-        synchronized (path.intern()) {
-            var target = cache.resolve(path);
-            return Files.exists(target);
-        }
+        // Checked after the file, so a download that is still writing it doesn't count.
+        return Files.exists(cache.resolve(path)) && !this.downloads.containsKey(path);
     }
 
     protected boolean validCache(Path path, boolean changing) {
@@ -91,7 +94,7 @@ public class MavenCache {
         var ret = new HashMap<HashFunction, String>();
         for (var func : new HashFunction[] { HashFunction.SHA1 }) {
             try {
-                String rhash = DownloadUtils.downloadString(repo + path + '.' + func.extension());
+                String rhash = Utils.downloadString(repo + path + '.' + func.extension());
                 if (rhash == null)
                     continue;
                 ret.put(func, rhash);
@@ -104,53 +107,81 @@ public class MavenCache {
         return ret;
     }
 
+    /**
+     * Only one thread downloads a path at a time, anyone else asking for it while that
+     * is happening waits for it and gets the same result.
+     */
     protected Path download(boolean changing, String path) {
-        var lock = path.intern();
-        synchronized (lock) {
-            var target = cache.resolve(path);
-
-            if (Files.exists(target)) {
-                boolean invalidHash = false;
-                if (!validCache(target, changing)) {
-                    var hashes = getRemoteHashes(path);
-                    for (var entry : hashes.entrySet()) {
-                        try {
-                            var rhash = entry.getValue();
-                            var chash = entry.getKey().hash(target.toFile());
-                            if (!chash.equals(rhash)) {
-                                log.info("Outdated cached file: %s", target.toAbsolutePath());
-                                log.info("Expected: %s", rhash);
-                                log.info("Actual:   %s", chash);
-                                invalidHash = true;
-                            }
-                        } catch (IOException e) {
-                            throw new RuntimeException("Could not download " + repo + path + ", Error reading cached file", e);
-                        }
-                    }
-                }
+        var future = new CompletableFuture<Path>();
+        var existing = this.downloads.putIfAbsent(path, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                return sneak(e.getCause());
+            }
+        }
 
-                if (!invalidHash)
-                    return target;
+        try {
+            var ret = fetch(changing, path);
+            future.complete(ret);
+            return ret;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            this.downloads.remove(path, future);
+        }
+    }
 
-                try {
-                    Files.delete(target);
-                } catch (IOException e) {
-                    return sneak(e);
+    private Path fetch(boolean changing, String path) {
+        var target = cache.resolve(path);
+
+        if (Files.exists(target)) {
+            boolean invalidHash = false;
+            // Offline we can't check for updates, so whatever we have is what we use
+            if (!Utils.isOffline() && !validCache(target, changing)) {
+                var hashes = getRemoteHashes(path);
+                for (var entry : hashes.entrySet()) {
+                    try {
+                        var rhash = entry.getValue();
+                        var chash = entry.getKey() == HashFunction.SHA1 ? blobs.sha1(target) : entry.getKey().hash(target.toFile());
+                        if (!chash.equals(rhash)) {
+                            log.info("Outdated cached file: %s", target.toAbsolutePath());
+                            log.info("Expected: %s", rhash);
+                            log.info("Actual:   %s", chash);
+                            invalidHash = true;
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException("Could not download " + repo + path + ", Error reading cached file", e);
+                    }
                 }
             }
 
-            try {
-                //log.info("Downloading %s", this.repo + path);
-                DownloadUtils.downloadFile(true, target.toFile(), this.repo + path);
+            if (!invalidHash)
                 return target;
-            } catch (FileNotFoundException e) {
-                return null;
+
+            try {
+                Files.delete(target);
             } catch (IOException e) {
-                if (e.getCause() instanceof FileNotFoundException)
-                    return null;
                 return sneak(e);
             }
         }
+
+        try {
+            //log.info("Downloading %s", this.repo + path);
+            Utils.downloadFile(true, target.toFile(), this.repo + path);
+            // Changing files are checked by their modified time, which links would share, and are unlikely to be duplicated anyway
+            if (!changing && Files.exists(target))
+                blobs.store(target);
+            return target;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            if (e.getCause() instanceof FileNotFoundException)
+                return null;
+            return sneak(e);
+        }
     }
 
     public List<String> getVersions(Artifact artifact) {
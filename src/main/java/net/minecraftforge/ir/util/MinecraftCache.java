@@ -31,8 +31,6 @@ import com.google.gson.JsonSyntaxException;
 import net.minecraftforge.ir.InstallerRewriter;
 import net.minecraftforge.ir.json.Manifest;
 import net.minecraftforge.ir.json.Version;
-import net.minecraftforge.util.download.DownloadUtils;
-import net.minecraftforge.util.hash.HashFunction;
 
 public class MinecraftCache extends MavenCache {
     private static final String VERSION_MANIFEST = "https://launchermeta.mojang.com/mc/game/version_manifest.json";
@@ -52,7 +50,7 @@ public class MinecraftCache extends MavenCache {
         this.root = root;
     }
 
-    private static boolean validCache(Path path, String hash) {
+    private boolean validCache(Path path, String hash) {
         try {
             if (!Files.exists(path))
                 return false;
@@ -60,8 +58,7 @@ public class MinecraftCache extends MavenCache {
                 return true;
             if (hash == null)
                 return false;
-            var chash = HashFunction.SHA1.hash(path.toFile());
-            return chash.equals(hash);
+            return blobs.sha1(path).equals(hash);
         } catch (IOException e) {
             return false;
         }
@@ -81,7 +78,7 @@ public class MinecraftCache extends MavenCache {
         var file = root.resolve("version_manifest.json");
         try {
             if (!validCache(file, null))
-                DownloadUtils.downloadFile(file.toFile(), VERSION_MANIFEST);
+                Utils.downloadFile(file.toFile(), VERSION_MANIFEST);
 
             if (this.manifest == null) {
                 try (BufferedReader reader = Files.newBufferedReader(file)) {
@@ -112,7 +109,7 @@ public class MinecraftCache extends MavenCache {
             var hash = getHash(url);
 
             if (!validCache(file, hash))
-                DownloadUtils.downloadFile(true, file.toFile(), url);
+                Utils.downloadFile(true, file.toFile(), url);
 
             return file;
         } catch (IOException e) {
@@ -172,16 +169,19 @@ public class MinecraftCache extends MavenCache {
             if (dl.sha1 == null || dl.sha1.isEmpty())
                 return path;
             try {
-                var hash = HashFunction.SHA1.hash(path.toFile());
-                if (hash.equals(dl.sha1))
+                // Offline there is nothing to replace it with
+                if (Utils.isOffline() || blobs.sha1(path).equals(dl.sha1))
                     return path;
+                // It may be linked to a blob other files share, so don't download over it.
+                Files.delete(path);
             } catch (IOException e) {
                 return path;
             }
         }
 
         try {
-            DownloadUtils.downloadFile(true, path.toFile(), dl.url);
+            Utils.downloadFile(true, path.toFile(), dl.url);
+            blobs.store(path);
             return path;
         } catch (IOException e) {
             logger.error("Failed to download version %s %s", version, key, e);
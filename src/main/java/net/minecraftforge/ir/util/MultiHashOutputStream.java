@@ -0,0 +1,90 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Tees everything written through it into the digests we publish as maven sidecar files,
+ * so the hashes come from the same bytes that went to disk.
+ */
+public class MultiHashOutputStream extends FilterOutputStream {
+    private static final String[] EXTENSIONS = { "md5", "sha1",  "sha256",  "sha512"  };
+    private static final String[] ALGORITHMS = { "MD5", "SHA-1", "SHA-256", "SHA-512" };
+
+    private final MessageDigest[] digests = new MessageDigest[ALGORITHMS.length];
+    private Map<String, String> hashes = null;
+
+    public MultiHashOutputStream(OutputStream out) {
+        super(out);
+        try {
+            for (int x = 0; x < ALGORITHMS.length; x++)
+                digests[x] = MessageDigest.getInstance(ALGORITHMS[x]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing standard digest algorithm", e);
+        }
+    }
+
+    public static Map<String, String> hash(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file);
+             MultiHashOutputStream out = new MultiHashOutputStream(OutputStream.nullOutputStream())) {
+            is.transferTo(out);
+            return out.hashes();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        for (MessageDigest digest : digests)
+            digest.update((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (MessageDigest digest : digests)
+            digest.update(b, off, len);
+    }
+
+    /**
+     * Finishes the digests, nothing else should be written after this is called.
+     *
+     * @return Sidecar extension -> lower case hex hash
+     */
+    public Map<String, String> hashes() {
+        if (hashes == null) {
+            hashes = new LinkedHashMap<>();
+            for (int x = 0; x < EXTENSIONS.length; x++)
+                hashes.put(EXTENSIONS[x], HashCode.fromBytes(digests[x].digest()).toString());
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Immutable set of zip entry names, stored as a tree of path segments so that common
+ * directories are only stored once. Lookups walk the name in place without allocating.
+ * <p>
+ * Names ending in '/' have an empty last segment, so directories and files with the same
+ * name are kept apart, same as in the zip.
+ */
+public final class PathTrie {
+    private static final String[] NO_NAMES = new String[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final Node root;
+    private final int size;
+
+    public static PathTrie of(Collection<String> paths) {
+        Builder root = new Builder();
+        int size = 0;
+        for (String path : paths) {
+            Builder node = root;
+            int start = 0;
+            while (true) {
+                int end = path.indexOf('/', start);
+                if (end == -1)
+                    end = path.length();
+                node = node.children.computeIfAbsent(path.substring(start, end), k -> new Builder());
+                if (end == path.length())
+                    break;
+                start = end + 1;
+            }
+            if (!node.terminal) {
+                node.terminal = true;
+                size++;
+            }
+        }
+        return new PathTrie(root.build(), size);
+    }
+
+    private PathTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String path) {
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf('/', start);
+            if (end == -1)
+                end = path.length();
+            node = node.child(path, start, end);
+            if (node == null)
+                return false;
+            if (end == path.length())
+                return node.terminal;
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Visits every path, sorted by segment so entries in the same directory are together.
+     */
+    public void forEach(Consumer<String> consumer) {
+        walk(root, new StringBuilder(), consumer);
+    }
+
+    private static void walk(Node node, StringBuilder prefix, Consumer<String> consumer) {
+        for (int x = 0; x < node.names.length; x++) {
+            int len = prefix.length();
+            prefix.append(node.names[x]);
+            Node child = node.children[x];
+            if (child.terminal)
+                consumer.accept(prefix.toString());
+            if (child.names.length != 0) {
+                prefix.append('/');
+                walk(child, prefix, consumer);
+            }
+            prefix.setLength(len);
+        }
+    }
+
+    private static class Node {
+        private final String[] names; // Sorted, for binary search
+        private final Node[] children;
+        private final boolean terminal;
+
+        private Node(String[] names, Node[] children, boolean terminal) {
+            this.names = names;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        private Node child(String path, int start, int end) {
+            int low = 0;
+            int high = names.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(names[mid], path, start, end);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return children[mid];
+            }
+            return null;
+        }
+
+        // Same order as String.compareTo, against a region of the path
+        private static int compare(String name, String path, int start, int end) {
+            int len = end - start;
+            int min = Math.min(name.length(), len);
+            for (int x = 0; x < min; x++) {
+                char a = name.charAt(x);
+                char b = path.charAt(start + x);
+                if (a != b)
+                    return a - b;
+            }
+            return name.length() - len;
+        }
+    }
+
+    private static class Builder {
+        private final Map<String, Builder> children = new TreeMap<>();
+        private boolean terminal = false;
+
+        private Node build() {
+            if (children.isEmpty())
+                return new Node(NO_NAMES, NO_NODES, terminal);
+
+            String[] names = new String[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int idx = 0;
+            for (Map.Entry<String, Builder> entry : children.entrySet()) {
+                names[idx] = entry.getKey();
+                nodes[idx++] = entry.getValue().build();
+            }
+            return new Node(names, nodes, terminal);
+        }
+    }
+}
@@ -38,6 +38,7 @@ import net.covers1624.quack.util.SneakyUtils;
 import net.minecraftforge.ir.ClasspathEntry;
 import net.minecraftforge.ir.ClasspathEntry.LibraryClasspathEntry;
 import net.minecraftforge.ir.ClasspathEntry.StringClasspathEntry;
+import net.minecraftforge.util.download.DownloadUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.maven.artifact.repository.metadata.Metadata;
@@ -46,19 +47,24 @@ import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.URI;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
@@ -78,6 +84,11 @@ public class Utils {
     private static final MetadataXpp3Reader METADATA_XPP3_READER = new MetadataXpp3Reader();
     private static final HashFunction SHA256 = Hashing.sha256();
 
+    private static volatile boolean offline = false;
+    // Lots of threads can be downloading at once, don't let them all hit the same server.
+    private static final int HOST_LIMIT = Integer.getInteger("ir.host_limit", 16);
+    private static final Map<String, Semaphore> HOSTS = new ConcurrentHashMap<>();
+
     public static final Gson GSON = new GsonBuilder()
             .registerTypeAdapter(MavenNotation.class, new MavenNotationAdapter())
             .registerTypeAdapter(Artifact.class, new TypeAdapter<Artifact>() {
@@ -143,6 +154,66 @@ public class Utils {
         return Collections.emptyList();
     }
 
+    /**
+     * In offline mode nothing is downloaded. Files have to already be in the cache, and
+     * anything missing is an error rather than a download, so runs are repeatable.
+     */
+    public static void setOffline(boolean value) {
+        offline = value;
+    }
+
+    public static boolean isOffline() {
+        return offline;
+    }
+
+    public static void checkOnline(String url) throws IOException {
+        if (offline)
+            throw new IOException("Offline mode, can not access " + url);
+    }
+
+    public static void downloadFile(File target, String url) throws IOException {
+        if (!offline)
+            limitHost(url, () -> { DownloadUtils.downloadFile(target, url); return null; });
+        else if (!target.exists())
+            throw new IOException("Offline mode, " + url + " is not cached at " + target);
+    }
+
+    public static void downloadFile(boolean silent, File target, String url) throws IOException {
+        if (!offline)
+            limitHost(url, () -> { DownloadUtils.downloadFile(silent, target, url); return null; });
+        else if (!target.exists())
+            throw new IOException("Offline mode, " + url + " is not cached at " + target);
+    }
+
+    public static String downloadString(String url) throws IOException {
+        checkOnline(url);
+        return limitHost(url, () -> DownloadUtils.downloadString(url));
+    }
+
+    private static <T> T limitHost(String url, ThrowingSupplier<T, IOException> request) throws IOException {
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        if (host == null)
+            return request.get();
+
+        Semaphore limit = HOSTS.computeIfAbsent(host, k -> new Semaphore(HOST_LIMIT));
+        try {
+            limit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to download " + url);
+        }
+        try {
+            return request.get();
+        } finally {
+            limit.release();
+        }
+    }
+
     public static Path makeParents(Path file) throws IOException {
         if (Files.notExists(file.getParent())) {
             Files.createDirectories(file.getParent());
@@ -353,12 +424,7 @@ public class Utils {
     }
 
     public static byte[] toBytes(InputStream is) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] buf = new byte[0x100];
-        int len;
-        while ((len = is.read(buf)) != -1)
-            bos.write(buf, 0, len);
-        return bos.toByteArray();
+        return is.readAllBytes();
     }
 
     public static String replaceTokens(Map<String, ? extends Supplier<String>> tokens, String value) {
@@ -405,6 +471,24 @@ public class Utils {
         return buf.toString();
     }
 
+    /**
+     * Makes the cached file show up at the target, as a hard link when possible so nothing is copied.
+     * Falls back to copying when the target is on a different device, or the filesystem has no links.
+     * The link shares its data with the cache, so whatever uses it must not write to it in place.
+     */
+    public static void link(Path source, Path target) throws IOException {
+        // Made next to the target and renamed over it, so the target never goes missing while it is replaced.
+        Path temp = target.resolveSibling('.' + target.getFileName().toString() + '.' + Thread.currentThread().threadId() + ".link");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createLink(temp, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Different device, or unsupported, so copy it instead.
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     public static void mkdirs(Path path) {
         if (path == null)
             return;
@@ -0,0 +1,478 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip reader that parses the central directory itself, so that entries can be
+ * handed out either inflated, or as the raw compressed bytes for copying into another zip.
+ * Reads are positional, so one reader can be shared between threads.
+ * <p>
+ * Entries of at least {@code ir.zip.mmap.threshold} bytes are memory mapped, so stored ones are
+ * handed out as slices of the mapping and deflated ones are inflated straight into an array of
+ * their final size. Smaller entries are cheaper to read through the channel. Mappings are only
+ * released once they are garbage collected, which is why only large entries get one.
+ * Windows does not allow moving a file that is mapped, so there we always read through the
+ * channel, the {@code ir.zip.mmap} system property overrides this.
+ */
+public class ZipReader implements Closeable {
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+    static final int EXTENDED_TIMESTAMP = 0x5455;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final boolean MAP = Boolean.parseBoolean(System.getProperty("ir.zip.mmap",
+        String.valueOf(!System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows"))));
+    private static final long MAP_THRESHOLD = Long.getLong("ir.zip.mmap.threshold", 1024 * 1024);
+
+    private final FileChannel channel;
+    private final long mapThreshold;
+    private final List<Entry> entries;
+
+    public static ZipReader open(Path path) throws IOException {
+        return open(path, MAP);
+    }
+
+    public static ZipReader open(Path path, boolean map) throws IOException {
+        return open(path, map ? MAP_THRESHOLD : Long.MAX_VALUE);
+    }
+
+    /**
+     * @param mapThreshold Entries of at least this many bytes are memory mapped.
+     */
+    static ZipReader open(Path path, long mapThreshold) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new ZipReader(channel, mapThreshold);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ZipReader(FileChannel channel, long mapThreshold) throws IOException {
+        this.channel = channel;
+        this.mapThreshold = mapThreshold;
+        this.entries = readCentralDirectory();
+    }
+
+    public List<Entry> entries() {
+        return this.entries;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = channel.size();
+        int tail = (int)Math.min(size, END_HEADER_SIZE + 0xFFFF);
+        ByteBuffer buf = read(size - tail, tail);
+
+        int end = -1;
+        for (int x = tail - END_HEADER_SIZE; x >= 0; x--) {
+            if (buf.getInt(x) == END_HEADER) {
+                end = x;
+                break;
+            }
+        }
+        if (end == -1)
+            throw new ZipException("Could not find end of central directory");
+
+        int count = buf.getShort(end + 10) & 0xFFFF;
+        long cenSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+        long cenOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL)
+            throw new ZipException("Zip64 files are not supported");
+
+        ByteBuffer cen = read(cenOffset, (int)cenSize);
+        List<Entry> ret = new ArrayList<>(count);
+        int pos = 0;
+        for (int x = 0; x < count; x++) {
+            if (cen.getInt(pos) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory header at " + (cenOffset + pos));
+
+            int flags = cen.getShort(pos + 8) & 0xFFFF;
+            int method = cen.getShort(pos + 10) & 0xFFFF;
+            long dosTime = cen.getInt(pos + 12) & 0xFFFFFFFFL;
+            long crc = cen.getInt(pos + 16) & 0xFFFFFFFFL;
+            long csize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            long usize = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLen = cen.getShort(pos + 28) & 0xFFFF;
+            int extraLen = cen.getShort(pos + 30) & 0xFFFF;
+            int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+            long offset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            byte[] name = new byte[nameLen];
+            cen.get(pos + CENTRAL_HEADER_SIZE, name);
+            byte[] extra = new byte[extraLen];
+            cen.get(pos + CENTRAL_HEADER_SIZE + nameLen, extra);
+
+            long time = readExtendedTime(extra);
+            if (time == -1)
+                time = ZipTime.fromDos(dosTime);
+
+            ret.add(new Entry(new String(name, StandardCharsets.UTF_8), flags, method, time, crc, csize, usize, offset));
+            pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    private static long readExtendedTime(byte[] extra) {
+        ByteBuffer buf = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.remaining() >= 4) {
+            int id = buf.getShort() & 0xFFFF;
+            int len = buf.getShort() & 0xFFFF;
+            if (len > buf.remaining())
+                break;
+            if (id == EXTENDED_TIMESTAMP && len >= 5 && (buf.get(buf.position()) & 0x1) != 0)
+                return (buf.getInt(buf.position() + 1) & 0xFFFFFFFFL) * 1000;
+            buf.position(buf.position() + len);
+        }
+        return -1;
+    }
+
+    private boolean isMapped(long length) {
+        return length >= mapThreshold;
+    }
+
+    /**
+     * Reads part of the file, mapping it instead if it is large enough. Mappings stay valid after
+     * the reader is closed.
+     */
+    private ByteBuffer region(long position, int length) throws IOException {
+        if (!isMapped(length))
+            return read(position, length);
+        if (position < 0 || position + length > channel.size())
+            throw new EOFException();
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) == -1)
+                throw new EOFException();
+        }
+        return buf.flip();
+    }
+
+    /**
+     * @return The offset of the entry's data, skipping the local header which can
+     * have a different extra field than the central directory.
+     */
+    private long dataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset == -1) {
+            ByteBuffer header = read(entry.offset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER)
+                throw new ZipException("Invalid local header for " + entry.name);
+            int nameLen = header.getShort(26) & 0xFFFF;
+            int extraLen = header.getShort(28) & 0xFFFF;
+            entry.dataOffset = entry.offset + LOCAL_HEADER_SIZE + nameLen + extraLen;
+        }
+        return entry.dataOffset;
+    }
+
+    /**
+     * @return The entry's data exactly as it is stored in the zip.
+     */
+    public InputStream getRawInput(Entry entry) throws IOException {
+        if (isMapped(entry.compressedSize))
+            return new BufferInputStream(region(dataOffset(entry), checkedSize(entry, entry.compressedSize)));
+        return new ChannelInputStream(channel, dataOffset(entry), entry.compressedSize);
+    }
+
+    /**
+     * @return The entry's uncompressed data. Stored entries large enough to be memory mapped are
+     * a read only view of the mapping and are not copied.
+     */
+    public ByteBuffer getData(Entry entry) throws IOException {
+        if (entry.method == STORED && isMapped(entry.size))
+            return region(dataOffset(entry), checkedSize(entry, entry.size)).asReadOnlyBuffer();
+        return ByteBuffer.wrap(getBytes(entry));
+    }
+
+    /**
+     * @return The entry's uncompressed data, in an array of exactly the entry's size.
+     */
+    public byte[] getBytes(Entry entry) throws IOException {
+        ByteBuffer raw = region(dataOffset(entry), checkedSize(entry, entry.compressedSize));
+        byte[] ret = new byte[checkedSize(entry, entry.size)];
+        switch (entry.method) {
+            case STORED:
+                raw.get(ret);
+                return ret;
+            case DEFLATED:
+                Inflater inf = new Inflater(true);
+                try {
+                    inf.setInput(raw);
+                    int off = 0;
+                    while (off < ret.length) {
+                        int len = inf.inflate(ret, off, ret.length - off);
+                        if (len == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary()))
+                            break;
+                        off += len;
+                    }
+                    if (off != ret.length)
+                        throw new ZipException("Expected " + ret.length + " bytes for " + entry.name + " but got " + off);
+                    return ret;
+                } catch (DataFormatException e) {
+                    throw new ZipException("Invalid deflate data for " + entry.name + ": " + e.getMessage());
+                } finally {
+                    inf.end();
+                }
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+    }
+
+    private static int checkedSize(Entry entry, long size) throws ZipException {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new ZipException("Entry too large: " + entry.name);
+        return (int)size;
+    }
+
+    public InputStream getInput(Entry entry) throws IOException {
+        InputStream raw = getRawInput(entry);
+        switch (entry.method) {
+            case STORED:
+                return raw;
+            case DEFLATED:
+                return new EntryInflaterInputStream(raw, entry.size);
+            default:
+                raw.close();
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long time;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+        private volatile long dataOffset = -1;
+
+        private Entry(String name, int flags, int method, long time, long crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isEncrypted() {
+            return (flags & 0x1) != 0;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            len = (int)Math.min(len, remaining);
+            int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (read == -1)
+                throw new EOFException();
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int)Math.min(Integer.MAX_VALUE, remaining);
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        private BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining())
+                return -1;
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skip = (int)Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skip);
+            return skip;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            long ret = buf.remaining();
+            if (buf.hasArray()) {
+                out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            } else {
+                byte[] tmp = new byte[(int)Math.min(ret, 0x10000)];
+                while (buf.hasRemaining()) {
+                    int len = Math.min(tmp.length, buf.remaining());
+                    buf.get(tmp, 0, len);
+                    out.write(tmp, 0, len);
+                }
+            }
+            buf.position(buf.limit());
+            return ret;
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private final long size;
+        private boolean eof = false;
+        private boolean closed = false;
+
+        private EntryInflaterInputStream(InputStream in, long size) {
+            super(in, new Inflater(true), 8192);
+            this.size = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof)
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // Raw inflaters can need a dummy byte after the data, same as ZipFile does
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed)
+                return 0;
+            long avail = size - inf.getBytesWritten();
+            return avail > Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(0, (int)avail);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+    }
+}
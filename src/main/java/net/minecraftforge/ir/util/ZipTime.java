@@ -0,0 +1,83 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+// Same conversions ZipEntry does, DOS times are in the local time zone.
+final class ZipTime {
+    static final long DOSTIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+
+    private ZipTime() {}
+
+    /**
+     * Old tools wrote DOS times that are not real dates, like all zeros, so like ZipEntry
+     * anything out of range rolls over into the next field instead of failing.
+     */
+    static long fromDos(long dtime) {
+        int year = (int)(((dtime >> 25) & 0x7f) + 1980);
+        int month = (int)((dtime >> 21) & 0x0f);
+        int day = (int)((dtime >> 16) & 0x1f);
+        int hour = (int)((dtime >> 11) & 0x1f);
+        int minute = (int)((dtime >> 5) & 0x3f);
+        int second = (int)((dtime << 1) & 0x3e);
+
+        if (month > 0 && month < 13 && day > 0 && hour < 24 && minute < 60 && second < 60) {
+            try {
+                LocalDateTime ldt = LocalDateTime.of(year, month, day, hour, minute, second);
+                return ldt.toEpochSecond(ZoneId.systemDefault().getRules().getOffset(ldt)) * 1000;
+            } catch (DateTimeException e) {
+                // Day past the end of the month, same as below
+            }
+        }
+        return overflow(year, month, day, hour, minute, second);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long overflow(int year, int month, int day, int hour, int minute, int second) {
+        return new Date(year - 1900, month - 1, day, hour, minute, second).getTime();
+    }
+
+    static long toDos(long time) {
+        LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = ldt.getYear() - 1980;
+        if (year < 0)
+            return DOSTIME_BEFORE_1980;
+        if (year > 0x7f)
+            year = 0x7f;
+        return (year << 25 |
+            ldt.getMonthValue() << 21 |
+            ldt.getDayOfMonth() << 16 |
+            ldt.getHour() << 11 |
+            ldt.getMinute() << 5 |
+            ldt.getSecond() >> 1) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return If the time can't be represented as a DOS time, and needs the extended timestamp field.
+     */
+    static boolean needsExtended(long time) {
+        int year = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).getYear();
+        return year < 1980 || year > 2099;
+    }
+}
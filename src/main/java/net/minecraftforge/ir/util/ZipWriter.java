@@ -0,0 +1,236 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import static net.minecraftforge.ir.util.ZipReader.CENTRAL_HEADER;
+import static net.minecraftforge.ir.util.ZipReader.DEFLATED;
+import static net.minecraftforge.ir.util.ZipReader.END_HEADER;
+import static net.minecraftforge.ir.util.ZipReader.EXTENDED_TIMESTAMP;
+import static net.minecraftforge.ir.util.ZipReader.LOCAL_HEADER;
+import static net.minecraftforge.ir.util.ZipReader.STORED;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Zip writer that, unlike ZipOutputStream, can copy an entry's already compressed data
+ * straight out of a {@link ZipReader}. New data is compressed up front so every local
+ * header has its sizes and CRC filled in, and no data descriptors are needed.
+ * <p>
+ * In reproducible mode every entry gets the same timestamp and no extra fields, so the
+ * output only depends on the names and data written, not on when or where it was written.
+ */
+public class ZipWriter implements Closeable {
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    // Pinned instead of DEFAULT_COMPRESSION, so a different default can't change our output.
+    private static final int LEVEL = 6;
+    private static final byte[] NO_EXTRA = new byte[0];
+
+    private final OutputStream out;
+    private final List<Header> headers = new ArrayList<>();
+    private final Deflater deflater = new Deflater(LEVEL, true);
+    private final boolean reproducible;
+    private long written = 0;
+    private boolean finished = false;
+
+    public ZipWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    public ZipWriter(OutputStream out, boolean reproducible) {
+        this.out = new BufferedOutputStream(out, 0x10000);
+        this.reproducible = reproducible;
+    }
+
+    public void writeDirectory(String name, long time) throws IOException {
+        putEntry(new Header(name, STORED, time, 0, 0, 0, reproducible));
+    }
+
+    public void write(String name, long time, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        byte[] buf = new byte[0x2000];
+        while (!deflater.finished()) {
+            int len = deflater.deflate(buf);
+            compressed.write(buf, 0, len);
+        }
+
+        putEntry(new Header(name, DEFLATED, time, crc.getValue(), compressed.size(), data.length, reproducible));
+        compressed.writeTo(out);
+        written += compressed.size();
+    }
+
+    /**
+     * Copies the entry's compressed data as is, the CRC and sizes come from the source's central directory.
+     */
+    public void writeRaw(String name, long time, ZipReader.Entry entry, InputStream raw) throws IOException {
+        if (entry.isEncrypted())
+            throw new ZipException("Can not copy encrypted entry " + entry.getName());
+        putEntry(new Header(name, entry.getMethod(), time, entry.getCrc(), entry.getCompressedSize(), entry.getSize(), reproducible));
+        long copied = raw.transferTo(out);
+        if (copied != entry.getCompressedSize())
+            throw new ZipException("Expected " + entry.getCompressedSize() + " bytes for " + name + " but got " + copied);
+        written += copied;
+    }
+
+    private void putEntry(Header header) throws IOException {
+        if (finished)
+            throw new IllegalStateException("Zip already finished");
+        header.offset = written;
+        headers.add(header);
+
+        writeInt(LOCAL_HEADER);
+        writeShort(header.method == STORED ? VERSION_STORED : VERSION_DEFLATED);
+        writeShort(FLAG_UTF8);
+        writeShort(header.method);
+        writeInt(header.dosTime);
+        writeInt(header.crc);
+        writeInt(header.compressedSize);
+        writeInt(header.size);
+        writeShort(header.name.length);
+        writeShort(header.extra.length);
+        writeBytes(header.name);
+        writeBytes(header.extra);
+    }
+
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        finished = true;
+
+        if (headers.size() > 0xFFFF || written > 0xFFFFFFFFL)
+            throw new ZipException("Zip64 files are not supported");
+
+        long cenOffset = written;
+        for (Header header : headers) {
+            writeInt(CENTRAL_HEADER);
+            writeShort(VERSION_DEFLATED);
+            writeShort(header.method == STORED ? VERSION_STORED : VERSION_DEFLATED);
+            writeShort(FLAG_UTF8);
+            writeShort(header.method);
+            writeInt(header.dosTime);
+            writeInt(header.crc);
+            writeInt(header.compressedSize);
+            writeInt(header.size);
+            writeShort(header.name.length);
+            writeShort(header.extra.length);
+            writeShort(0); // Comment
+            writeShort(0); // Disk
+            writeShort(0); // Internal attributes
+            writeInt(0);   // External attributes
+            writeInt(header.offset);
+            writeBytes(header.name);
+            writeBytes(header.extra);
+        }
+        long cenSize = written - cenOffset;
+
+        writeInt(END_HEADER);
+        writeShort(0);
+        writeShort(0);
+        writeShort(headers.size());
+        writeShort(headers.size());
+        writeInt(cenSize);
+        writeInt(cenOffset);
+        writeShort(0);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        out.write((int)(v & 0xFF));
+        out.write((int)((v >>> 8) & 0xFF));
+        out.write((int)((v >>> 16) & 0xFF));
+        out.write((int)((v >>> 24) & 0xFF));
+        written += 4;
+    }
+
+    private void writeBytes(byte[] data) throws IOException {
+        out.write(data);
+        written += data.length;
+    }
+
+    private static class Header {
+        private final byte[] name;
+        private final int method;
+        private final long dosTime;
+        private final byte[] extra;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private long offset;
+
+        private Header(String name, int method, long time, long crc, long compressedSize, long size, boolean reproducible) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            if (reproducible) {
+                // DOS times are local, so use the raw value instead of converting a time.
+                this.dosTime = ZipTime.DOSTIME_BEFORE_1980;
+                this.extra = NO_EXTRA;
+            } else {
+                this.dosTime = ZipTime.toDos(time);
+                this.extra = ZipTime.needsExtended(time) ? extendedTime(time) : NO_EXTRA;
+            }
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        private static byte[] extendedTime(long time) {
+            long secs = Math.floorDiv(time, 1000);
+            return new byte[] {
+                (byte)(EXTENDED_TIMESTAMP & 0xFF), (byte)(EXTENDED_TIMESTAMP >>> 8),
+                5, 0,
+                0x1, // Only the modified time
+                (byte)secs, (byte)(secs >>> 8), (byte)(secs >>> 16), (byte)(secs >>> 24)
+            };
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.minecraftforge.ir.util.Log;
+import net.minecraftforge.ir.util.MultiHashOutputStream;
+import net.minecraftforge.util.hash.HashFunction;
+
+/**
+ * Walks through every point a crash can leave an in-place rewrite at, in the order
+ * InstallerRewriter.saveVersion does them, and checks what the next run recovers.
+ */
+public class InPlaceJournalTest {
+    private static final String NAME = "forge-1.16.5-36.0.0-installer.jar";
+    private static final FileTime ORIGINAL_TIME = FileTime.fromMillis(1609853862000L);
+    private static final String ORIGINAL = "original";
+    private static final String REWRITTEN = "rewritten";
+
+    @TempDir
+    Path dir;
+    Path cache;
+    Path installer;
+    Path temp;
+    Path backup;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        cache = dir.resolve("cache");
+        installer = dir.resolve("repo").resolve(NAME);
+        temp = installer.resolveSibling('.' + NAME + ".tmp");
+        backup = dir.resolve("backup").resolve(NAME);
+
+        Files.createDirectories(installer.getParent());
+        write(installer, ORIGINAL);
+        write(sidecar(installer, "sha1"), HashFunction.SHA1.hash(installer.toFile()));
+        write(sidecar(installer, "md5"), md5(installer));
+        Files.setLastModifiedTime(installer, ORIGINAL_TIME);
+    }
+
+    @Test
+    public void nothingToRecover() throws IOException {
+        assertEquals(0, recover());
+        assertOriginal();
+    }
+
+    @Test
+    public void crashWhileWritingEntry() throws IOException {
+        write(temp, REWRITTEN);
+        Path partial = cache.resolve("inplace_journal").resolve(NAME + ".json.tmp");
+        Files.createDirectories(partial.getParent());
+        write(partial, "{\"installer\":");
+
+        assertEquals(0, recover());
+        assertFalse(Files.exists(partial));
+        assertOriginal();
+    }
+
+    @Test
+    public void crashAfterBegin() throws IOException {
+        begin();
+
+        assertEquals(1, recover());
+        assertOriginal();
+        assertFalse(Files.exists(temp));
+        assertFalse(Files.exists(backup));
+        assertEquals(0, recover());
+    }
+
+    @Test
+    public void crashWhileMovingToBackup() throws IOException {
+        begin();
+        move(installer, backup);
+        move(sidecar(installer, "md5"), sidecar(backup, "md5"));
+
+        assertEquals(1, recover());
+        assertRewritten();
+    }
+
+    @Test
+    public void crashAfterMovingToBackup() throws IOException {
+        begin();
+        moveAll();
+
+        assertEquals(1, recover());
+        assertRewritten();
+    }
+
+    @Test
+    public void crashAfterSwap() throws IOException {
+        begin();
+        moveAll();
+        move(temp, installer);
+
+        assertEquals(1, recover());
+        assertRewritten();
+    }
+
+    @Test
+    public void crashBeforeFinish() throws IOException {
+        begin();
+        moveAll();
+        move(temp, installer);
+        write(sidecar(installer, "sha1"), HashFunction.SHA1.hash(installer.toFile()));
+
+        assertEquals(1, recover());
+        assertRewritten();
+    }
+
+    @Test
+    public void newInstallerLost() throws IOException {
+        begin();
+        moveAll();
+        Files.delete(temp);
+
+        assertEquals(1, recover());
+        assertOriginal();
+        assertFalse(Files.exists(backup));
+    }
+
+    @Test
+    public void existingBackupFailsEarly() throws IOException {
+        Files.createDirectories(backup.getParent());
+        write(backup, "older backup");
+        write(temp, REWRITTEN);
+
+        assertThrows(FileAlreadyExistsException.class, () -> new InPlaceJournal(cache).begin(installer, temp, backup));
+        assertEquals(0, recover());
+        assertOriginal();
+        assertEquals("older backup", read(backup));
+    }
+
+    @Test
+    public void neverReplacesOriginalWithBackupInTheWay() throws IOException {
+        // An entry left behind when the original could not be moved, as older versions did.
+        begin();
+        Files.createDirectories(backup.getParent());
+        write(backup, "older backup");
+
+        assertEquals(1, recover());
+        assertOriginal();
+        assertFalse(Files.exists(temp));
+        assertEquals("older backup", read(backup));
+    }
+
+    private void begin() throws IOException {
+        write(temp, REWRITTEN);
+        new InPlaceJournal(cache).begin(installer, temp, backup);
+    }
+
+    // What InstallerRewriter.moveWithAssociated does, the jar first.
+    private void moveAll() throws IOException {
+        move(installer, backup);
+        move(sidecar(installer, "sha1"), sidecar(backup, "sha1"));
+        move(sidecar(installer, "md5"), sidecar(backup, "md5"));
+    }
+
+    private int recover() throws IOException {
+        try (SidecarWriter sidecars = new SidecarWriter(new Log(), 10)) {
+            return new InPlaceJournal(cache).recover(sidecars);
+        }
+    }
+
+    private void assertOriginal() throws IOException {
+        assertEquals(ORIGINAL, read(installer));
+        assertEquals(HashFunction.SHA1.hash(installer.toFile()), read(sidecar(installer, "sha1")));
+        assertEquals(md5(installer), read(sidecar(installer, "md5")));
+        assertEquals(ORIGINAL_TIME, Files.getLastModifiedTime(installer));
+    }
+
+    private void assertRewritten() throws IOException {
+        assertEquals(REWRITTEN, read(installer));
+        assertFalse(Files.exists(temp));
+        assertEquals(HashFunction.SHA1.hash(installer.toFile()), read(sidecar(installer, "sha1")));
+        assertEquals(md5(installer), read(sidecar(installer, "md5")));
+        assertEquals(ORIGINAL_TIME, Files.getLastModifiedTime(installer));
+
+        assertEquals(ORIGINAL, read(backup));
+        assertEquals(HashFunction.SHA1.hash(backup.toFile()), read(sidecar(backup, "sha1")));
+        assertEquals(md5(backup), read(sidecar(backup, "md5")));
+
+        // Finished, so the next run has nothing to do.
+        assertEquals(0, recover());
+        assertTrue(Files.exists(installer));
+    }
+
+    private static String md5(Path file) throws IOException {
+        return MultiHashOutputStream.hash(file).get("md5");
+    }
+
+    private static Path sidecar(Path file, String ext) {
+        return file.resolveSibling(file.getFileName() + "." + ext);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        Files.createDirectories(to.getParent());
+        Files.move(from, to);
+    }
+
+    private static void write(Path file, String data) throws IOException {
+        Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.minecraftforge.util.hash.HashFunction;
+
+public class RewriteStateTest {
+    private static final String FINGERPRINT = "v1";
+    private static final FileTime ORIGINAL = FileTime.fromMillis(1609853862000L);
+    private static final Set<String> DEPS = Set.of("net.minecraftforge:forge:1.16.5-36.0.0:universal");
+
+    @TempDir
+    Path dir;
+    Path repo;
+    Path cache;
+    Path installer;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        repo = dir.resolve("repo");
+        cache = dir.resolve("cache");
+        installer = repo.resolve("net/minecraftforge/forge/1.16.5-36.0.0/forge-1.16.5-36.0.0-installer.jar");
+        Files.createDirectories(installer.getParent());
+        Files.write(installer, "installer".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(installer, ORIGINAL);
+    }
+
+    @Test
+    public void unchangedAfterReload() throws IOException {
+        RewriteState state = RewriteState.load(cache, repo, FINGERPRINT);
+        state.record(installer, null, null, DEPS);
+        state.save();
+
+        Set<String> deps = new HashSet<>();
+        assertTrue(RewriteState.load(cache, repo, FINGERPRINT).isUnchanged(installer, deps));
+        assertEquals(DEPS, deps);
+    }
+
+    @Test
+    public void changedContents() throws IOException {
+        RewriteState state = RewriteState.load(cache, repo, FINGERPRINT);
+        state.record(installer, null, null, DEPS);
+
+        Files.write(installer, "rewritten installer".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(installer, ORIGINAL);
+        Set<String> deps = new HashSet<>();
+        assertFalse(state.isUnchanged(installer, deps));
+        assertTrue(deps.isEmpty());
+    }
+
+    @Test
+    public void touchedButSame() throws IOException {
+        RewriteState state = RewriteState.load(cache, repo, FINGERPRINT);
+        state.record(installer, null, null, DEPS);
+
+        Files.setLastModifiedTime(installer, FileTime.fromMillis(ORIGINAL.toMillis() + 60_000));
+        assertTrue(state.isUnchanged(installer, new HashSet<>()));
+    }
+
+    @Test
+    public void otherFingerprint() throws IOException {
+        RewriteState state = RewriteState.load(cache, repo, FINGERPRINT);
+        state.record(installer, null, null, DEPS);
+        state.save();
+
+        assertFalse(RewriteState.load(cache, repo, "v2").isUnchanged(installer, new HashSet<>()));
+    }
+
+    @Test
+    public void recordsPendingTimestamp() throws IOException {
+        // Saved in place, the new file has the time of the move until the sidecar writer restores the original.
+        Files.setLastModifiedTime(installer, FileTime.fromMillis(System.currentTimeMillis()));
+        String sha1 = HashFunction.SHA1.hash(installer.toFile());
+
+        RewriteState state = RewriteState.load(cache, repo, FINGERPRINT);
+        state.record(installer, sha1, ORIGINAL, DEPS);
+        Files.setLastModifiedTime(installer, ORIGINAL);
+
+        // A wrong hash would be caught if the time didn't match and it was hashed again.
+        state.record(installer, "0000000000000000000000000000000000000000", ORIGINAL, DEPS);
+        assertTrue(state.isUnchanged(installer, new HashSet<>()));
+    }
+
+    @Test
+    public void corruptStateProcessesEverything() throws IOException {
+        Files.createDirectories(cache);
+        Files.write(cache.resolve("rewrite_state.json"), "{ not json".getBytes(StandardCharsets.UTF_8));
+        assertFalse(RewriteState.load(cache, repo, FINGERPRINT).isUnchanged(installer, new HashSet<>()));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.minecraftforge.util.hash.HashFunction;
+
+public class BlobStoreTest {
+    @TempDir
+    Path root;
+
+    @Test
+    public void duplicatesShareOneReadOnlyBlob() throws IOException {
+        Path first = write("maven/a/lib-1.0.jar", "library");
+        Path second = write("mirror/a/lib-1.0.jar", "library");
+
+        BlobStore store = BlobStore.of(root);
+        store.store(first);
+        store.store(second);
+
+        assertTrue(Files.isSameFile(first, second));
+        assertEquals("library", read(second));
+        assertFalse(isWritable(first));
+        assertEquals(1, blobs().length);
+    }
+
+    @Test
+    public void hashesFromIndex() throws IOException {
+        Path file = write("maven/a/lib-1.0.jar", "library");
+        String sha1 = HashFunction.SHA1.hash(file.toFile());
+
+        BlobStore store = BlobStore.of(root);
+        assertEquals(sha1, store.sha1(file));
+        store.store(file);
+        assertEquals(sha1, store.sha1(file));
+    }
+
+    @Test
+    public void deleteOnlyRemovesTheLink() throws IOException {
+        Path first = write("maven/a/lib-1.0.jar", "library");
+        Path second = write("mirror/a/lib-1.0.jar", "library");
+        BlobStore store = BlobStore.of(root);
+        store.store(first);
+        store.store(second);
+
+        Files.delete(first);
+        assertFalse(Files.exists(first));
+        assertEquals("library", read(second));
+
+        // Downloaded again with other data, it gets its own blob.
+        write("maven/a/lib-1.0.jar", "changed");
+        store.store(first);
+        assertEquals("changed", read(first));
+        assertEquals("library", read(second));
+        assertEquals(2, blobs().length);
+    }
+
+    private Path[] blobs() throws IOException {
+        try (var stream = Files.walk(root.resolve("blobs"))) {
+            return stream.filter(Files::isRegularFile)
+                .filter(p -> p.getFileName().toString().length() == 40)
+                .toArray(Path[]::new);
+        }
+    }
+
+    // Checks the permission itself, File.canWrite is always true for root.
+    private static boolean isWritable(Path file) throws IOException {
+        if (Files.getFileStore(file).supportsFileAttributeView("posix"))
+            return Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_WRITE);
+        return file.toFile().canWrite();
+    }
+
+    private Path write(String name, String data) throws IOException {
+        Path file = Utils.makeParents(root.resolve(name));
+        Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
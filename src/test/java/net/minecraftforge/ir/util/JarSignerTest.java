@@ -0,0 +1,192 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSigner;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JarSignerTest {
+    private static final String PASS = "password";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void rsa() throws Exception {
+        signAndVerify("RSA", "rsa_key");
+    }
+
+    @Test
+    public void ec() throws Exception {
+        signAndVerify("EC", "ec_key");
+    }
+
+    @Test
+    public void dsa() throws Exception {
+        signAndVerify("DSA", "dsa_key");
+    }
+
+    @Test
+    public void resignReplacesOldSignature() throws Exception {
+        Path first = signAndVerify("RSA", "first");
+        JarSigner second = signer("EC", "second");
+
+        Path target = dir.resolve("resigned.jar");
+        try (JarContents jar = JarContents.loadJar(first.toFile())) {
+            jar.write("added.txt", "new".getBytes());
+            jar.save(Files.newOutputStream(target), second);
+        }
+
+        Set<String> signatures = new HashSet<>();
+        try (JarFile jar = new JarFile(target.toFile(), true)) {
+            jar.stream().map(JarEntry::getName).filter(JarContents::isSignature).forEach(signatures::add);
+        }
+        assertEquals(Set.of(second.getSignatureFile(), second.getBlockFile()), signatures);
+        verify(target, ZipWriterTest.sample().keySet().size() + 1);
+    }
+
+    @Test
+    public void tamperedEntryFails() throws Exception {
+        Path signed = signAndVerify("RSA", "tamper");
+        Path tampered = dir.resolve("tampered.jar");
+        try (JarContents jar = JarContents.loadJar(signed.toFile());
+             ZipWriter out = new ZipWriter(Files.newOutputStream(tampered))) {
+            // Copy everything as is, except one entry, so the signature files are untouched.
+            for (String name : jar.getFiles().stream().sorted((l, r) -> rank(l) - rank(r)).toList()) {
+                byte[] data;
+                try (InputStream is = jar.getInput(name)) {
+                    data = is.readAllBytes();
+                }
+                if (name.equals("dir/compressible.txt"))
+                    data = "changed".getBytes();
+                out.write(name, 0, data);
+            }
+        }
+
+        try (JarFile jar = new JarFile(tampered.toFile(), true)) {
+            JarEntry entry = jar.getJarEntry("dir/compressible.txt");
+            assertThrows(SecurityException.class, () -> {
+                try (InputStream is = jar.getInputStream(entry)) {
+                    is.readAllBytes();
+                }
+            });
+        }
+    }
+
+    private static int rank(String name) {
+        return name.equals(JarContents.MANIFEST) ? 0 : JarContents.isSignature(name) ? 1 : 2;
+    }
+
+    private Path signAndVerify(String algorithm, String alias) throws Exception {
+        Map<String, byte[]> data = ZipWriterTest.sample();
+        Path source = dir.resolve(alias + "-source.jar");
+        ZipWriterTest.writeJdk(source, data);
+
+        JarSigner signer = signer(algorithm, alias);
+        Path target = dir.resolve(alias + ".jar");
+        try (JarContents jar = JarContents.loadJar(source.toFile())) {
+            jar.save(Files.newOutputStream(target), signer);
+        }
+
+        verify(target, data.size());
+        try (JarFile jar = new JarFile(target.toFile(), true)) {
+            for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+                if (entry.getKey().equals(JarContents.MANIFEST))
+                    continue;
+                try (InputStream is = jar.getInputStream(jar.getJarEntry(entry.getKey()))) {
+                    assertArrayEquals(entry.getValue(), is.readAllBytes(), entry.getKey());
+                }
+            }
+        }
+        return target;
+    }
+
+    // Every file other than the manifest and signatures must be signed, read from both JarFile and JarInputStream.
+    private static void verify(Path jar, int entries) throws IOException {
+        int signed = 0;
+        try (JarFile file = new JarFile(jar.toFile(), true)) {
+            for (Enumeration<JarEntry> e = file.entries(); e.hasMoreElements();) {
+                JarEntry entry = e.nextElement();
+                if (entry.isDirectory() || isMeta(entry.getName()))
+                    continue;
+                try (InputStream is = file.getInputStream(entry)) {
+                    is.readAllBytes();
+                }
+                CodeSigner[] signers = entry.getCodeSigners();
+                assertNotNull(signers, entry.getName());
+                assertEquals(1, signers.length, entry.getName());
+                signed++;
+            }
+        }
+        assertEquals(entries - 1, signed); // All but the manifest
+
+        signed = 0;
+        try (JarInputStream is = new JarInputStream(Files.newInputStream(jar), true)) {
+            assertNotNull(is.getManifest());
+            JarEntry entry;
+            while ((entry = is.getNextJarEntry()) != null) {
+                if (entry.isDirectory() || isMeta(entry.getName()))
+                    continue;
+                is.readAllBytes();
+                assertNotNull(entry.getCodeSigners(), entry.getName());
+                signed++;
+            }
+        }
+        assertEquals(entries - 1, signed);
+    }
+
+    private static boolean isMeta(String name) {
+        return name.equals(JarContents.MANIFEST) || JarContents.isSignature(name);
+    }
+
+    // There is no public API to make a certificate, so let keytool do it.
+    private JarSigner signer(String algorithm, String alias) throws Exception {
+        Path keyStore = dir.resolve(alias + ".p12");
+        Path keytool = Paths.get(System.getProperty("java.home"), "bin", OS.CURRENT == OS.WINDOWS ? "keytool.exe" : "keytool");
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair",
+            "-keystore", keyStore.toString(), "-storetype", "PKCS12", "-storepass", PASS, "-keypass", PASS,
+            "-alias", alias, "-keyalg", algorithm, "-dname", "CN=InstallerRewriter Test", "-validity", "1")
+            .redirectErrorStream(true)
+            .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertEquals(0, process.waitFor(), output);
+        assertTrue(Files.exists(keyStore));
+        return JarSigner.load(keyStore, PASS, alias, PASS);
+    }
+}
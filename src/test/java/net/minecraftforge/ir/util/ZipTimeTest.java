@@ -0,0 +1,81 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class ZipTimeTest {
+    // year 2000, month 13, day 0, 25:61:62
+    private static final long OUT_OF_RANGE = (20L << 25) | (13L << 21) | (0L << 16) | (25L << 11) | (61L << 5) | 31L;
+    // 2021-02-30 12:00:00
+    private static final long FEBRUARY_30 = (41L << 25) | (2L << 21) | (30L << 16) | (12L << 11);
+
+    @Test
+    public void zeroMatchesZipEntry() throws IOException {
+        assertEquals(jdkTime(0), ZipTime.fromDos(0));
+    }
+
+    @Test
+    public void outOfRangeMatchesZipEntry() throws IOException {
+        assertEquals(jdkTime(OUT_OF_RANGE), ZipTime.fromDos(OUT_OF_RANGE));
+        assertEquals(jdkTime(FEBRUARY_30), ZipTime.fromDos(FEBRUARY_30));
+        assertEquals(jdkTime(ZipTime.DOSTIME_BEFORE_1980), ZipTime.fromDos(ZipTime.DOSTIME_BEFORE_1980));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        long time = LocalDateTime.of(2021, 1, 5, 13, 37, 42).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long dos = ZipTime.toDos(time);
+        assertEquals(time, ZipTime.fromDos(dos));
+        assertEquals(jdkTime(dos), ZipTime.fromDos(dos));
+    }
+
+    // Writes a zip with the given raw DOS time and lets the JDK read it back.
+    private static long jdkTime(long dos) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            ZipEntry entry = new ZipEntry("a.txt");
+            // Inside the DOS range, so no extended timestamp is written that would be read instead.
+            entry.setTime(LocalDateTime.of(2000, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            zip.putNextEntry(entry);
+            zip.write('a');
+            zip.closeEntry();
+        }
+
+        // The local header is first, its time and date are at 10 and 12
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(10, (int)dos);
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(buf.array()))) {
+            return zip.getNextEntry().getTime();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ZipWriterTest {
+    private static final long TIME = 1609853862000L; // 2021-01-05, inside the DOS range
+    private static final long OLD_TIME = 0; // Needs the extended timestamp
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void rawCopyMapped() throws IOException {
+        rawCopy(0);
+    }
+
+    @Test
+    public void rawCopyChannel() throws IOException {
+        rawCopy(Long.MAX_VALUE);
+    }
+
+    private void rawCopy(long mapThreshold) throws IOException {
+        Map<String, byte[]> data = sample();
+        Path source = dir.resolve("source.jar");
+        writeJdk(source, data);
+
+        Path target = dir.resolve("target.jar");
+        try (ZipReader reader = ZipReader.open(source, mapThreshold);
+             ZipWriter writer = new ZipWriter(Files.newOutputStream(target))) {
+            for (ZipReader.Entry entry : reader.entries()) {
+                if (entry.isDirectory()) {
+                    writer.writeDirectory(entry.getName(), entry.getTime());
+                } else {
+                    try (InputStream raw = reader.getRawInput(entry)) {
+                        writer.writeRaw(entry.getName(), entry.getTime(), entry, raw);
+                    }
+                }
+            }
+        }
+
+        assertSame(source, target, data);
+        // The compressed bytes were copied, not compressed again.
+        try (ZipFile src = new ZipFile(source.toFile()); ZipFile dst = new ZipFile(target.toFile())) {
+            for (String name : data.keySet())
+                assertEquals(src.getEntry(name).getCompressedSize(), dst.getEntry(name).getCompressedSize(), name);
+        }
+    }
+
+    @Test
+    public void newEntries() throws IOException {
+        Map<String, byte[]> data = sample();
+        Path target = dir.resolve("target.jar");
+        try (ZipWriter writer = new ZipWriter(Files.newOutputStream(target))) {
+            writer.writeDirectory("dir/", TIME);
+            for (Map.Entry<String, byte[]> entry : data.entrySet())
+                writer.write(entry.getKey(), entry.getKey().equals("old.txt") ? OLD_TIME : TIME, entry.getValue());
+        }
+
+        try (ZipFile zip = new ZipFile(target.toFile())) {
+            assertNotNull(zip.getEntry("dir/"));
+            for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+                ZipEntry ze = zip.getEntry(entry.getKey());
+                assertEquals(entry.getKey().equals("old.txt") ? OLD_TIME : TIME, ze.getTime(), entry.getKey());
+                try (InputStream is = zip.getInputStream(ze)) {
+                    assertArrayEquals(entry.getValue(), is.readAllBytes(), entry.getKey());
+                }
+            }
+        }
+
+        // And our own reader agrees, whether the entries are mapped or not
+        for (long threshold : new long[] { 0, 100, Long.MAX_VALUE }) {
+            try (ZipReader reader = ZipReader.open(target, threshold)) {
+                for (ZipReader.Entry entry : reader.entries()) {
+                    if (entry.isDirectory())
+                        continue;
+                    assertArrayEquals(data.get(entry.getName()), reader.getBytes(entry), entry.getName());
+                    ByteBuffer buf = reader.getData(entry);
+                    byte[] bytes = new byte[buf.remaining()];
+                    buf.get(bytes);
+                    assertArrayEquals(data.get(entry.getName()), bytes, entry.getName());
+                    try (InputStream is = reader.getInput(entry)) {
+                        assertArrayEquals(data.get(entry.getName()), is.readAllBytes(), entry.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsZeroDosTime() throws IOException {
+        Path source = dir.resolve("zero.jar");
+        writeJdk(source, Collections.singletonMap("a.txt", "a".getBytes(StandardCharsets.UTF_8)));
+
+        // Zero the time and date in the central directory, which is where ZipReader reads them from.
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(source)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int x = 0; x < buf.limit() - 4; x++) {
+            if (buf.getInt(x) == ZipReader.CENTRAL_HEADER)
+                buf.putInt(x + 12, 0);
+        }
+        Files.write(source, buf.array());
+
+        try (ZipReader reader = ZipReader.open(source, false); ZipFile zip = new ZipFile(source.toFile())) {
+            for (ZipReader.Entry entry : reader.entries())
+                assertEquals(zip.getEntry(entry.getName()).getTime(), entry.getTime(), entry.getName());
+        }
+    }
+
+    @Test
+    public void reproducible() throws IOException {
+        Map<String, byte[]> data = sample();
+        TimeZone zone = TimeZone.getDefault();
+        byte[] first;
+        byte[] second;
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            first = writeReproducible(data, TIME);
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Auckland"));
+            second = writeReproducible(data, OLD_TIME);
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+        assertArrayEquals(first, second);
+
+        // No extra fields anywhere, so nothing like an extended timestamp sneaks in.
+        ByteBuffer buf = ByteBuffer.wrap(first).order(ByteOrder.LITTLE_ENDIAN);
+        for (int x = 0; x < buf.limit() - 4; x++) {
+            if (buf.getInt(x) == ZipReader.LOCAL_HEADER)
+                assertEquals(0, buf.getShort(x + 28), "local extra at " + x);
+            else if (buf.getInt(x) == ZipReader.CENTRAL_HEADER)
+                assertEquals(0, buf.getShort(x + 30), "central extra at " + x);
+        }
+
+        Path target = dir.resolve("reproducible.jar");
+        Files.write(target, first);
+        try (ZipFile zip = new ZipFile(target.toFile())) {
+            for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+                try (InputStream is = zip.getInputStream(zip.getEntry(entry.getKey()))) {
+                    assertArrayEquals(entry.getValue(), is.readAllBytes(), entry.getKey());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reproducibleJarContents() throws IOException {
+        Map<String, byte[]> data = sample();
+        Path first = dir.resolve("first.jar");
+        writeJdk(first, data);
+        // Same compressed data with other times, which is all reproducible mode hides.
+        Path second = dir.resolve("second.jar");
+        try (ZipReader reader = ZipReader.open(first, false);
+             ZipWriter writer = new ZipWriter(Files.newOutputStream(second))) {
+            for (ZipReader.Entry entry : reader.entries()) {
+                try (InputStream raw = reader.getRawInput(entry)) {
+                    writer.writeRaw(entry.getName(), entry.getTime() + 3_600_000, entry, raw);
+                }
+            }
+        }
+        assertFalse(Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second)));
+
+        assertArrayEquals(saveReproducible(first), saveReproducible(second));
+    }
+
+    private static byte[] writeReproducible(Map<String, byte[]> data, long time) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipWriter writer = new ZipWriter(bytes, true)) {
+            writer.writeDirectory("dir/", time);
+            for (Map.Entry<String, byte[]> entry : data.entrySet())
+                writer.write(entry.getKey(), time, entry.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] saveReproducible(Path jar) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarContents contents = JarContents.loadJar(jar.toFile())) {
+            contents.write("added.txt", "added".getBytes(StandardCharsets.UTF_8));
+            contents.save(bytes, null, true);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void rejectsEncryptedEntries() throws IOException {
+        Path source = dir.resolve("encrypted.jar");
+        writeJdk(source, Collections.singletonMap("a.txt", "a".getBytes(StandardCharsets.UTF_8)));
+
+        // Set the encrypted flag on every entry, in both headers.
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(source)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int x = 0; x < buf.limit() - 4; x++) {
+            if (buf.getInt(x) == ZipReader.LOCAL_HEADER)
+                buf.putShort(x + 6, (short)(buf.getShort(x + 6) | 1));
+            else if (buf.getInt(x) == ZipReader.CENTRAL_HEADER)
+                buf.putShort(x + 8, (short)(buf.getShort(x + 8) | 1));
+        }
+        Files.write(source, buf.array());
+
+        assertThrows(ZipException.class, () -> JarContents.loadJar(source.toFile()));
+        try (ZipReader reader = ZipReader.open(source, false);
+             ZipWriter writer = new ZipWriter(OutputStream.nullOutputStream())) {
+            ZipReader.Entry entry = reader.entries().stream().filter(e -> !e.isDirectory()).findFirst().get();
+            assertTrue(entry.isEncrypted());
+            assertThrows(ZipException.class, () -> writer.writeRaw(entry.getName(), TIME, entry, reader.getRawInput(entry)));
+        }
+    }
+
+    static Map<String, byte[]> sample() {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        ret.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        StringBuilder text = new StringBuilder();
+        for (int x = 0; x < 2000; x++)
+            text.append("line ").append(x).append('\n');
+        ret.put("dir/compressible.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] random = new byte[5000];
+        new java.util.Random(42).nextBytes(random);
+        ret.put("dir/random.bin", random);
+        ret.put("empty.txt", new byte[0]);
+        ret.put("old.txt", "from 1970".getBytes(StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    // Writes the sample with ZipOutputStream, empty.txt is stored and the rest deflated.
+    static void writeJdk(Path target, Map<String, byte[]> data) throws IOException {
+        try (OutputStream os = Files.newOutputStream(target); ZipOutputStream zip = new ZipOutputStream(os)) {
+            ZipEntry dirEntry = new ZipEntry("dir/");
+            dirEntry.setTime(TIME);
+            zip.putNextEntry(dirEntry);
+            zip.closeEntry();
+            for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+                ZipEntry ze = new ZipEntry(entry.getKey());
+                ze.setTime(entry.getKey().equals("old.txt") ? OLD_TIME : TIME);
+                if (entry.getValue().length == 0) {
+                    CRC32 crc = new CRC32();
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(0);
+                    ze.setCompressedSize(0);
+                    ze.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(ze);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+    }
+
+    // Checks that the JDK reads the same names, data, times and methods from both files.
+    static void assertSame(Path expected, Path actual, Map<String, byte[]> data) throws IOException {
+        try (ZipFile exp = new ZipFile(expected.toFile()); ZipFile act = new ZipFile(actual.toFile())) {
+            assertEquals(names(exp), names(act));
+            for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+                ZipEntry e = exp.getEntry(entry.getKey());
+                ZipEntry a = act.getEntry(entry.getKey());
+                assertEquals(e.getTime(), a.getTime(), entry.getKey());
+                assertEquals(e.getMethod(), a.getMethod(), entry.getKey());
+                assertEquals(e.getCrc(), a.getCrc(), entry.getKey());
+                try (InputStream is = act.getInputStream(a)) {
+                    assertArrayEquals(entry.getValue(), is.readAllBytes(), entry.getKey());
+                }
+            }
+        }
+        assertTrue(Files.size(actual) > 0);
+    }
+
+    private static List<String> names(ZipFile zip) {
+        List<String> ret = new ArrayList<>();
+        zip.stream().forEach(e -> ret.add(e.getName()));
+        return ret;
+    }
+}